@@ -20,8 +20,10 @@
 
 package com.github.fungal.api.classloading;
 
+import java.io.File;
 import java.lang.reflect.Constructor;
 import java.net.URL;
+import java.util.concurrent.Executor;
 
 /**
  * Class loader factory
@@ -68,6 +70,43 @@ public class ClassLoaderFactory
     */
    public static synchronized KernelClassLoader create(int type, URL[] urls, ClassLoader parent)
       throws IllegalArgumentException, IllegalStateException
+   {
+      return create(type, urls, parent, null, null);
+   }
+
+   /**
+    * Create a class loader
+    * @param type The class loader type
+    * @param urls The resource URLs
+    * @param parent The parent class loader
+    * @param index The file used to persist the archive index of an export class loader
+    *              between starts; <code>null</code> if the index shouldn't be persisted
+    * @return The kernel class loader
+    * @exception IllegalArgumentException Thrown if unknown type is passed
+    * @exception IllegalStateException Thrown if a classloader can't be created
+    */
+   public static synchronized KernelClassLoader create(int type, URL[] urls, ClassLoader parent, File index)
+      throws IllegalArgumentException, IllegalStateException
+   {
+      return create(type, urls, parent, index, null);
+   }
+
+   /**
+    * Create a class loader
+    * @param type The class loader type
+    * @param urls The resource URLs
+    * @param parent The parent class loader
+    * @param index The file used to persist the archive index of an export class loader
+    *              between starts; <code>null</code> if the index shouldn't be persisted
+    * @param executor The executor used by an export class loader to scan its archives
+    *                 concurrently; <code>null</code> if the archives should be scanned by the calling thread
+    * @return The kernel class loader
+    * @exception IllegalArgumentException Thrown if unknown type is passed
+    * @exception IllegalStateException Thrown if a classloader can't be created
+    */
+   public static synchronized KernelClassLoader create(int type, URL[] urls, ClassLoader parent, File index,
+                                                       Executor executor)
+      throws IllegalArgumentException, IllegalStateException
    {
       if (type == TYPE_PARENT_FIRST)
       {
@@ -102,9 +141,10 @@ public class ClassLoaderFactory
          try
          {
             Class<?> clz = Class.forName(CLASSLOADER_EXPORT, true, ClassLoaderFactory.class.getClassLoader());
-            Constructor<?> constructor = clz.getDeclaredConstructor(URL[].class, ClassLoader.class);
+            Constructor<?> constructor = clz.getDeclaredConstructor(URL[].class, ClassLoader.class,
+                                                                    File.class, Executor.class);
 
-            return (KernelClassLoader)constructor.newInstance(urls, parent);
+            return (KernelClassLoader)constructor.newInstance(urls, parent, index, executor);
          }
          catch (Throwable t)
          {
@@ -26,9 +26,15 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Kernel class loader
+ *
+ * Class and resource names which couldn't be found are kept in a bounded
+ * negative cache, which is cleared when URLs are added or the class loader
+ * is shutdown
+ *
  * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
  * @see com.github.fungal.api.classloading.ClassLoaderFactory
  */
@@ -50,6 +56,21 @@ public abstract class KernelClassLoader extends URLClassLoader implements Closea
       simpleTypes.put(double.class.getName(), double.class);
    }
 
+   /** The maximum number of entries in each negative cache */
+   private static final int MAX_MISSING = 8192;
+
+   /** Class names which couldn't be found */
+   private ConcurrentMap<String, Boolean> missingClasses;
+
+   /** Resource names which couldn't be found */
+   private ConcurrentMap<String, Boolean> missingResources;
+
+   /** Negative cache hits */
+   private AtomicLong hits;
+
+   /** Negative cache misses */
+   private AtomicLong misses;
+
    /**
     * Constructor
     * @param urls The URLs for JAR archives or directories
@@ -58,18 +79,124 @@ public abstract class KernelClassLoader extends URLClassLoader implements Closea
    protected KernelClassLoader(URL[] urls, ClassLoader parent)
    {
       super(urls, parent);
+
+      this.missingClasses = new ConcurrentHashMap<String, Boolean>();
+      this.missingResources = new ConcurrentHashMap<String, Boolean>();
+      this.hits = new AtomicLong(0);
+      this.misses = new AtomicLong(0);
    }
    
    /**
     * Load a class
     * @param name The fully qualified class name
-    * @return The class
-    * @throws ClassNotFoundException If the class could not be found 
+    * @return The class; <code>null</code> if the class should be looked up by the class loader
+    * @throws ClassNotFoundException If the class is known not to exist
     */
    @Override
    public Class<?> loadClass(String name) throws ClassNotFoundException
    {
-      return simpleTypes.get(name);
+      Class<?> result = simpleTypes.get(name);
+
+      if (result == null && isMissingClass(name))
+         throw new MissingClassException(name);
+
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected void addURL(URL url)
+   {
+      super.addURL(url);
+
+      clearNegativeCache();
+   }
+
+   /**
+    * Is a class known not to exist
+    * @param name The fully qualified class name
+    * @return True if the class couldn't be found before; otherwise false
+    */
+   protected boolean isMissingClass(String name)
+   {
+      if (missingClasses.containsKey(name))
+      {
+         hits.incrementAndGet();
+         return true;
+      }
+
+      misses.incrementAndGet();
+      return false;
+   }
+
+   /**
+    * Register a class which couldn't be found
+    * @param name The fully qualified class name
+    */
+   protected void addMissingClass(String name)
+   {
+      if (missingClasses.size() >= MAX_MISSING)
+         missingClasses.clear();
+
+      missingClasses.put(name, Boolean.TRUE);
+   }
+
+   /**
+    * Is a resource known not to exist
+    * @param name The resource name
+    * @return True if the resource couldn't be found before; otherwise false
+    */
+   protected boolean isMissingResource(String name)
+   {
+      if (missingResources.containsKey(name))
+      {
+         hits.incrementAndGet();
+         return true;
+      }
+
+      misses.incrementAndGet();
+      return false;
+   }
+
+   /**
+    * Register a resource which couldn't be found
+    * @param name The resource name
+    */
+   protected void addMissingResource(String name)
+   {
+      if (missingResources.size() >= MAX_MISSING)
+         missingResources.clear();
+
+      missingResources.put(name, Boolean.TRUE);
+   }
+
+   /**
+    * Clear the negative cache
+    */
+   public void clearNegativeCache()
+   {
+      missingClasses.clear();
+      missingResources.clear();
+   }
+
+   /**
+    * Get the number of lookups answered by the negative cache
+    * @return The value
+    */
+   public long getNegativeCacheHits()
+   {
+      return hits.get();
+   }
+
+   /**
+    * Get the number of lookups not answered by the negative cache
+    * @return The value
+    */
+   public long getNegativeCacheMisses()
+   {
+      return misses.get();
    }
 
    /**
@@ -86,5 +213,33 @@ public abstract class KernelClassLoader extends URLClassLoader implements Closea
     */
    public void shutdown() throws IOException
    {
+      clearNegativeCache();
+   }
+
+   /**
+    * A class not found exception without a stack trace for negative cache hits
+    */
+   static class MissingClassException extends ClassNotFoundException
+   {
+      /** Serial version uid */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Constructor
+       * @param name The fully qualified class name
+       */
+      MissingClassException(String name)
+      {
+         super(name);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public Throwable fillInStackTrace()
+      {
+         return this;
+      }
    }
 }
@@ -65,6 +65,12 @@ public class KernelConfiguration
    /** Do parallel deployment in deploy */
    private boolean parallelDeploy;
 
+   /** Do parallel shutdown of the beans */
+   private boolean parallelShutdown;
+
+   /** Bean shutdown timeout */
+   private long beanShutdownTimeout;
+
    /** Bind address */
    private String bindAddress;
 
@@ -83,6 +89,9 @@ public class KernelConfiguration
    /** Hot deployment internal in seconds */
    private int hotDeploymentInterval;
 
+   /** Hot deployment quiet period */
+   private long hotDeploymentQuietPeriod;
+
    /** Event listeners */
    private List<EventListener> eventListeners;
 
@@ -110,6 +119,12 @@ public class KernelConfiguration
    /** RMI server port */
    private int rmiServerPort;
 
+   /** System property snapshot */
+   private boolean systemPropertySnapshot;
+
+   /** Streaming deployment */
+   private boolean streamingDeployment;
+
    /**
     * Constructor
     */
@@ -124,12 +139,15 @@ public class KernelConfiguration
       deploy = "deploy";
       repository = "repository";
       parallelDeploy = true;
+      parallelShutdown = true;
+      beanShutdownTimeout = 0L;
       bindAddress = null;
       threadGroup = null;
       remoteAccess = true;
       remotePort = 1202;
       hotDeployment = true;
       hotDeploymentInterval = 5;
+      hotDeploymentQuietPeriod = 0L;
       eventListeners = null;
       commands = null;
       deploymentOrder = null;
@@ -139,6 +157,8 @@ public class KernelConfiguration
       remoteJmxAccess = false;
       rmiRegistryPort = 1203;
       rmiServerPort = 1204;
+      systemPropertySnapshot = false;
+      streamingDeployment = false;
    }
 
    /**
@@ -332,6 +352,52 @@ public class KernelConfiguration
       return parallelDeploy;
    }
 
+   /**
+    * Set if the beans should be stopped in parallel during shutdown, such that
+    * a bean is stopped once the beans depending on it have been stopped;
+    * default <code>true</code>
+    * @param value The value
+    * @return The configuration
+    */
+   public KernelConfiguration parallelShutdown(boolean value)
+   {
+      this.parallelShutdown = value;
+
+      return this;
+   }
+
+   /**
+    * Get if the beans should be stopped in parallel during shutdown
+    * @return The value
+    */
+   public boolean isParallelShutdown()
+   {
+      return parallelShutdown;
+   }
+
+   /**
+    * Set the time in milliseconds that the parallel shutdown waits for a bean
+    * to stop before it moves on to its dependencies; default <code>0</code>
+    * which waits until the bean has stopped
+    * @param value The value
+    * @return The configuration
+    */
+   public KernelConfiguration beanShutdownTimeout(long value)
+   {
+      this.beanShutdownTimeout = value;
+
+      return this;
+   }
+
+   /**
+    * Get the bean shutdown timeout in milliseconds
+    * @return The value
+    */
+   public long getBeanShutdownTimeout()
+   {
+      return beanShutdownTimeout;
+   }
+
    /**
     * Set the bind address; default <code>null</code>
     * @param ba The value
@@ -458,6 +524,29 @@ public class KernelConfiguration
       return hotDeploymentInterval;
    }
 
+   /**
+    * Set the period in milliseconds that a new or changed deployment must have been
+    * left unchanged before it is hot deployed, such that partial writes are coalesced;
+    * default <code>0</code>
+    * @param v The value
+    * @return The configuration
+    */
+   public KernelConfiguration hotDeploymentQuietPeriod(long v)
+   {
+      this.hotDeploymentQuietPeriod = v;
+
+      return this;
+   }
+
+   /**
+    * Get the hot deployment quiet period in milliseconds
+    * @return The value
+    */
+   public long getHotDeploymentQuietPeriod()
+   {
+      return hotDeploymentQuietPeriod;
+   }
+
    /**
     * Add an event listener
     * @param el The event listener
@@ -661,4 +750,48 @@ public class KernelConfiguration
    {
       return rmiServerPort;
    }
+
+   /**
+    * Resolve the system properties of a deployment against a snapshot taken
+    * when the deployment starts; default <code>false</code>
+    * @param v The value
+    * @return The configuration
+    */
+   public KernelConfiguration systemPropertySnapshot(boolean v)
+   {
+      this.systemPropertySnapshot = v;
+
+      return this;
+   }
+
+   /**
+    * Is system property snapshot enabled ?
+    * @return The value
+    */
+   public boolean isSystemPropertySnapshot()
+   {
+      return systemPropertySnapshot;
+   }
+
+   /**
+    * Schedule the beans of a deployment while its descriptor is still
+    * being parsed; default <code>false</code>
+    * @param v The value
+    * @return The configuration
+    */
+   public KernelConfiguration streamingDeployment(boolean v)
+   {
+      this.streamingDeployment = v;
+
+      return this;
+   }
+
+   /**
+    * Is streaming deployment enabled ?
+    * @return The value
+    */
+   public boolean isStreamingDeployment()
+   {
+      return streamingDeployment;
+   }
 }
@@ -21,25 +21,230 @@
 package com.github.fungal.api.util;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Injection utility which can inject values into objects
  *
+ * The setter or field for a property is resolved once per (class, property, type)
+ * and kept in an injection plan, so repeated injections of the same property
+ * doesn't search the class hierarchy again. The converter of a type is cached
+ * as well. Subclasses overriding the member lookup don't share the injection plans.
+ *
+ * The caches are keyed weakly by class, and since the cached members refer to
+ * their class the entries are only held weakly as well; each Injection instance
+ * keeps the entries it has used strongly reachable, so a redeploy doesn't leak
+ * class loaders.
+ *
+ * System property substitutions of the form <code>${property}</code> or
+ * <code>${property:default}</code> are parsed once per input into a template
+ * of literal and property segments
+ *
  * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
  */
 public class Injection
 {
+   /** Converters for the built-in types */
+   private static final Map<Class<?>, Converter> CONVERTERS;
+
+   /** Converters for other types */
+   private static final Map<Class<?>, WeakReference<Converter>> TYPE_CONVERTERS =
+      Collections.synchronizedMap(new WeakHashMap<Class<?>, WeakReference<Converter>>());
+
+   /** The maximum number of cached substitution templates */
+   private static final int MAX_TEMPLATES = 4096;
+
+   /** Substitution templates */
+   private static final ConcurrentMap<String, Template> TEMPLATES = new ConcurrentHashMap<String, Template>();
+
+   /** Injection plans */
+   private static final Map<Class<?>, WeakReference<ConcurrentMap<String, InjectionPlan>>> PLANS =
+      Collections.synchronizedMap(new WeakHashMap<Class<?>, WeakReference<ConcurrentMap<String, InjectionPlan>>>());
+
+   static
+   {
+      Map<Class<?>, Converter> m = new HashMap<Class<?>, Converter>(21);
+
+      m.put(String.class, new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return substituted;
+         }
+      });
+
+      Converter byteConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Byte.valueOf(substituted);
+         }
+      };
+      m.put(byte.class, byteConverter);
+      m.put(Byte.class, byteConverter);
+
+      Converter shortConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Short.valueOf(substituted);
+         }
+      };
+      m.put(short.class, shortConverter);
+      m.put(Short.class, shortConverter);
+
+      Converter intConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Integer.valueOf(substituted);
+         }
+      };
+      m.put(int.class, intConverter);
+      m.put(Integer.class, intConverter);
+
+      Converter longConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Long.valueOf(substituted);
+         }
+      };
+      m.put(long.class, longConverter);
+      m.put(Long.class, longConverter);
+
+      Converter floatConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Float.valueOf(substituted);
+         }
+      };
+      m.put(float.class, floatConverter);
+      m.put(Float.class, floatConverter);
+
+      Converter doubleConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Double.valueOf(substituted);
+         }
+      };
+      m.put(double.class, doubleConverter);
+      m.put(Double.class, doubleConverter);
+
+      Converter booleanConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Boolean.valueOf(substituted);
+         }
+      };
+      m.put(boolean.class, booleanConverter);
+      m.put(Boolean.class, booleanConverter);
+
+      Converter charConverter = new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl)
+         {
+            return isEmpty(substituted) ? value : Character.valueOf(substituted.charAt(0));
+         }
+      };
+      m.put(char.class, charConverter);
+      m.put(Character.class, charConverter);
+
+      m.put(InetAddress.class, new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl) throws Exception
+         {
+            return InetAddress.getByName(substituted);
+         }
+      });
+
+      m.put(Class.class, new Converter()
+      {
+         Object convert(String name, String value, String substituted, ClassLoader cl) throws Exception
+         {
+            return Class.forName(substituted, true, cl);
+         }
+      });
+
+      CONVERTERS = Collections.unmodifiableMap(m);
+   }
+
+   /** The system property snapshot */
+   private Properties systemProperties;
+
+   /** Use the shared injection plans; only when the member lookup isn't overridden */
+   private boolean sharedPlans;
+
+   /** The cache entries used by this instance; keeps them strongly reachable */
+   private Set<Object> pinned;
+
    /**
     * Constructor
     */
    public Injection()
    {
+      this(false);
+   }
+
+   /**
+    * Constructor
+    * @param snapshot Resolve system properties against a snapshot taken now
+    */
+   public Injection(boolean snapshot)
+   {
+      this.systemProperties = snapshot ? SecurityActions.getSystemProperties() : null;
+      this.sharedPlans = !isOverridden(getClass(), "findMethod") && !isOverridden(getClass(), "findField");
+      this.pinned = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+   }
+
+   /**
+    * Is a member lookup method overridden by a subclass
+    * @param clz The class
+    * @param methodName The name of the method
+    * @return True if overridden; otherwise false
+    */
+   private static boolean isOverridden(Class<?> clz, String methodName)
+   {
+      Class<?> c = clz;
+
+      while (c != null && c != Injection.class)
+      {
+         try
+         {
+            c.getDeclaredMethod(methodName, Class.class, String.class, String.class);
+            return true;
+         }
+         catch (NoSuchMethodException nsme)
+         {
+            c = c.getSuperclass();
+         }
+         catch (Throwable t)
+         {
+            return true;
+         }
+      }
+
+      return false;
    }
 
    /**
@@ -98,59 +303,43 @@ public class Injection
       if (propertyName == null || propertyName.trim().equals(""))
          throw new IllegalArgumentException("PropertyName is undefined");
 
-      String methodName = "set" + propertyName.substring(0, 1).toUpperCase(Locale.US);
-      if (propertyName.length() > 1)
-      {
-         methodName += propertyName.substring(1);
-      }
-
-      Method method = findMethod(object.getClass(), methodName, propertyType);
+      InjectionPlan plan = getInjectionPlan(object.getClass(), propertyName, propertyType);
 
-      if (method != null)
+      if (plan.method != null)
       {
-         method.setAccessible(true);
-
-         Class<?> parameterClass = method.getParameterTypes()[0];
          Object parameterValue = null;
          try
          {
-            parameterValue = getValue(propertyName, parameterClass, propertyValue, 
-                                      object.getClass().getClassLoader());
+            parameterValue = getValue(propertyName, plan.type, propertyValue, object.getClass().getClassLoader());
          }
          catch (Throwable t)
          {
             throw new InvocationTargetException(t, t.getMessage());
          }
                 
-         if (!parameterClass.isPrimitive() || parameterValue != null)
-            method.invoke(object, new Object[] {parameterValue});
+         if (!plan.type.isPrimitive() || parameterValue != null)
+            plan.method.invoke(object, new Object[] {parameterValue});
       }
       else
       {
          if (!includeFields)
-            throw new NoSuchMethodException("Method " + methodName + " not found (" +
+            throw new NoSuchMethodException("Method " + plan.methodName + " not found (" +
                                             object.getClass().getName() + ")");
 
          // Ok, we didn't find a method - assume field
-         Field field = findField(object.getClass(), propertyName, propertyType);
-
-         if (field != null)
+         if (plan.field != null)
          {
-            field.setAccessible(true);
-
-            Class<?> fieldClass = field.getType();
             Object fieldValue = null;
             try
             {
-               fieldValue = getValue(propertyName, fieldClass, propertyValue,
-                                     object.getClass().getClassLoader());
+               fieldValue = getValue(propertyName, plan.type, propertyValue, object.getClass().getClassLoader());
             }
             catch (Throwable t)
             {
                throw new InvocationTargetException(t, t.getMessage());
             }
 
-            field.set(object, fieldValue);
+            plan.field.set(object, fieldValue);
          }
          else
          {
@@ -160,6 +349,83 @@ public class Injection
       }
    }
 
+   /**
+    * Get the injection plan for a property
+    * @param clz The class
+    * @param propertyName The property name
+    * @param propertyType The property type; can be <code>null</code>
+    * @return The plan
+    */
+   private InjectionPlan getInjectionPlan(Class<?> clz, String propertyName, String propertyType)
+   {
+      if (!sharedPlans)
+         return createInjectionPlan(clz, propertyName, propertyType);
+
+      ConcurrentMap<String, InjectionPlan> plans = null;
+
+      synchronized (PLANS)
+      {
+         WeakReference<ConcurrentMap<String, InjectionPlan>> ref = PLANS.get(clz);
+         plans = ref != null ? ref.get() : null;
+
+         if (plans == null)
+         {
+            plans = new ConcurrentHashMap<String, InjectionPlan>();
+            PLANS.put(clz, new WeakReference<ConcurrentMap<String, InjectionPlan>>(plans));
+         }
+      }
+
+      pinned.add(plans);
+
+      String key = propertyType != null ? propertyName + ":" + propertyType : propertyName;
+      InjectionPlan plan = plans.get(key);
+
+      if (plan == null)
+      {
+         plan = createInjectionPlan(clz, propertyName, propertyType);
+         plans.put(key, plan);
+      }
+
+      return plan;
+   }
+
+   /**
+    * Create the injection plan for a property
+    * @param clz The class
+    * @param propertyName The property name
+    * @param propertyType The property type; can be <code>null</code>
+    * @return The plan
+    */
+   private InjectionPlan createInjectionPlan(Class<?> clz, String propertyName, String propertyType)
+   {
+      String methodName = "set" + propertyName.substring(0, 1).toUpperCase(Locale.US);
+      if (propertyName.length() > 1)
+      {
+         methodName += propertyName.substring(1);
+      }
+
+      InjectionPlan plan = new InjectionPlan(methodName);
+      plan.method = findMethod(clz, methodName, propertyType);
+
+      if (plan.method != null)
+      {
+         plan.method.setAccessible(true);
+         plan.type = plan.method.getParameterTypes()[0];
+      }
+      else
+      {
+         plan.field = findField(clz, propertyName, propertyType);
+
+         if (plan.field != null)
+         {
+            plan.field.setAccessible(true);
+            plan.type = plan.field.getType();
+         }
+      }
+
+      return plan;
+   }
+
    /**
     * Find a method
     * @param clz The class
@@ -233,84 +499,71 @@ public class Injection
    {
       if (v instanceof String)
       {
-         String substituredValue = getSubstitutionValue((String)v);
+         Converter converter = getConverter(clz);
+         pinned.add(converter);
 
-         if (clz.equals(String.class))
-         {
-            v = substituredValue;
-         }
-         else if (clz.equals(byte.class) || clz.equals(Byte.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Byte.valueOf(substituredValue);
-         }
-         else if (clz.equals(short.class) || clz.equals(Short.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Short.valueOf(substituredValue);
-         }
-         else if (clz.equals(int.class) || clz.equals(Integer.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Integer.valueOf(substituredValue);
-         }
-         else if (clz.equals(long.class) || clz.equals(Long.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Long.valueOf(substituredValue);
-         }
-         else if (clz.equals(float.class) || clz.equals(Float.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Float.valueOf(substituredValue);
-         }
-         else if (clz.equals(double.class) || clz.equals(Double.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Double.valueOf(substituredValue);
-         }
-         else if (clz.equals(boolean.class) || clz.equals(Boolean.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Boolean.valueOf(substituredValue);
-         }
-         else if (clz.equals(char.class) || clz.equals(Character.class))
-         {
-            if (substituredValue != null && !substituredValue.trim().equals(""))
-               v = Character.valueOf(substituredValue.charAt(0));
-         }
-         else if (clz.equals(InetAddress.class))
-         {
-            v = InetAddress.getByName(substituredValue);
-         }
-         else if (clz.equals(Class.class))
-         {
-            v = Class.forName(substituredValue, true, cl);
-         }
-         else
+         return converter.convert(name, (String)v, getSubstitutionValue((String)v), cl);
+      }
+
+      return v;
+   }
+
+   /**
+    * Get the converter for a type
+    * @param clz The type
+    * @return The converter
+    */
+   private static Converter getConverter(Class<?> clz)
+   {
+      Converter converter = CONVERTERS.get(clz);
+
+      if (converter != null)
+         return converter;
+
+      synchronized (TYPE_CONVERTERS)
+      {
+         WeakReference<Converter> ref = TYPE_CONVERTERS.get(clz);
+         converter = ref != null ? ref.get() : null;
+
+         if (converter == null)
          {
+            Constructor<?> constructor = null;
+            Method valueOf = null;
+
             try
             {
-               Constructor<?> constructor = clz.getConstructor(String.class);
-               v = constructor.newInstance(substituredValue);
+               constructor = clz.getConstructor(String.class);
             }
             catch (Throwable t)
             {
-               // Try static String valueOf method
-               try
-               {
-                  Method valueOf = clz.getMethod("valueOf", String.class);
-                  v = valueOf.invoke((Object)null, substituredValue);
-               }
-               catch (Throwable inner)
-               {
-                  throw new IllegalArgumentException("Unknown property resolution for property " + name);
-               }
+               // No String constructor
+            }
+
+            try
+            {
+               valueOf = clz.getMethod("valueOf", String.class);
             }
+            catch (Throwable t)
+            {
+               // No static String valueOf method
+            }
+
+            converter = new TypeConverter(constructor, valueOf);
+            TYPE_CONVERTERS.put(clz, new WeakReference<Converter>(converter));
          }
       }
 
-      return v;
+      return converter;
+   }
+
+   /**
+    * Is a value empty
+    * @param value The value
+    * @return True if empty; otherwise false
+    */
+   private static boolean isEmpty(String value)
+   {
+      return value == null || value.trim().equals("");
    }
 
    /**
@@ -320,70 +573,260 @@ public class Injection
     */
    protected String getSubstitutionValue(String input)
    {
-      if (input == null || input.trim().equals(""))
+      if (input == null || input.indexOf("${") == -1)
          return input;
 
-      while (input.indexOf("${") != -1)
+      Template template = TEMPLATES.get(input);
+
+      if (template == null)
       {
-         int from = input.indexOf("${");
-         int to = input.indexOf("}");
-         int dv = input.indexOf(":", from + 2);
+         template = new Template(input);
+
+         if (TEMPLATES.size() < MAX_TEMPLATES)
+            TEMPLATES.put(input, template);
+      }
+
+      return template.render(this);
+   }
+
+   /**
+    * Get a system property
+    * @param name The property name
+    * @return The value
+    */
+   private String getSystemProperty(String name)
+   {
+      if (systemProperties != null)
+         return systemProperties.getProperty(name);
+
+      return SecurityActions.getSystemProperty(name);
+   }
+
+   /**
+    * A converter from a String value to a type
+    */
+   abstract static class Converter
+   {
+      /**
+       * Convert a value
+       * @param name The value name
+       * @param value The value
+       * @param substituted The value after system property substitution
+       * @param cl The class loader
+       * @return The converted value
+       * @exception Exception Thrown in case of an error
+       */
+      abstract Object convert(String name, String value, String substituted, ClassLoader cl) throws Exception;
+   }
+
+   /**
+    * A converter using the String constructor or the static String valueOf method of a type
+    */
+   static class TypeConverter extends Converter
+   {
+      /** The String constructor */
+      private Constructor<?> constructor;
+
+      /** The static String valueOf method */
+      private Method valueOf;
+
+      /**
+       * Constructor
+       * @param constructor The String constructor; can be <code>null</code>
+       * @param valueOf The static String valueOf method; can be <code>null</code>
+       */
+      TypeConverter(Constructor<?> constructor, Method valueOf)
+      {
+         this.constructor = constructor;
+         this.valueOf = valueOf;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      Object convert(String name, String value, String substituted, ClassLoader cl) throws Exception
+      {
+         if (constructor != null)
+         {
+            try
+            {
+               return constructor.newInstance(substituted);
+            }
+            catch (Throwable t)
+            {
+               // Try static String valueOf method
+            }
+         }
 
-         if (dv != -1)
+         if (valueOf != null)
          {
-            if (dv > to)
-               dv = -1;
+            try
+            {
+               return valueOf.invoke((Object)null, substituted);
+            }
+            catch (Throwable t)
+            {
+               // Unknown
+            }
          }
-         
-         String systemProperty = "";
-         String defaultValue = "";
-         if (dv == -1)
+
+         throw new IllegalArgumentException("Unknown property resolution for property " + name);
+      }
+   }
+
+   /**
+    * The resolved injection of a property; plans are shared between all
+    * Injection instances, so they only hold the resolved members
+    */
+   static class InjectionPlan
+   {
+      /** The name of the setter method */
+      private String methodName;
+
+      /** The setter method */
+      private Method method;
+
+      /** The field */
+      private Field field;
+
+      /** The property type */
+      private Class<?> type;
+
+      /**
+       * Constructor
+       * @param methodName The name of the setter method
+       */
+      InjectionPlan(String methodName)
+      {
+         this.methodName = methodName;
+         this.method = null;
+         this.field = null;
+         this.type = null;
+      }
+   }
+
+   /**
+    * A parsed system property substitution; literal segments have a <code>null</code> property
+    */
+   static class Template
+   {
+      /** The literals */
+      private String[] literals;
+
+      /** The properties */
+      private String[] properties;
+
+      /** The default values */
+      private String[] defaultValues;
+
+      /** The length of the literals */
+      private int length;
+
+      /**
+       * Constructor
+       * @param input The input string
+       */
+      Template(String input)
+      {
+         List<String> l = new ArrayList<String>();
+         List<String> p = new ArrayList<String>();
+         List<String> d = new ArrayList<String>();
+
+         int index = 0;
+         int from = input.indexOf("${");
+
+         while (from != -1)
          {
+            int to = input.indexOf("}", from + 2);
+
+            if (to == -1)
+               break;
+
+            if (from > index)
+            {
+               l.add(input.substring(index, from));
+               p.add(null);
+               d.add(null);
+            }
+
             String s = input.substring(from + 2, to);
             if ("/".equals(s))
             {
-               systemProperty = File.separator;
+               l.add(File.separator);
+               p.add(null);
+               d.add(null);
             }
             else if (":".equals(s))
             {
-               systemProperty = File.pathSeparator;
+               l.add(File.pathSeparator);
+               p.add(null);
+               d.add(null);
             }
             else
             {
-               systemProperty = SecurityActions.getSystemProperty(s);
+               int dv = s.indexOf(":");
+
+               l.add(null);
+               p.add(dv == -1 ? s : s.substring(0, dv));
+               d.add(dv == -1 ? null : s.substring(dv + 1));
             }
-         }
-         else
-         {
-            systemProperty = SecurityActions.getSystemProperty(input.substring(from + 2, dv));
-            defaultValue = input.substring(dv + 1, to);
-         }
-         String prefix = "";
-         String postfix = "";
 
-         if (from != 0)
-         {
-            prefix = input.substring(0, from);
-         }
-         
-         if (to + 1 < input.length() - 1)
-         {
-            postfix = input.substring(to + 1);
+            index = to + 1;
+            from = input.indexOf("${", index);
          }
 
-         if (systemProperty != null && !systemProperty.trim().equals(""))
+         if (index < input.length())
          {
-            input = prefix + systemProperty + postfix;
+            l.add(input.substring(index));
+            p.add(null);
+            d.add(null);
          }
-         else if (defaultValue != null && !defaultValue.trim().equals(""))
+
+         this.literals = l.toArray(new String[l.size()]);
+         this.properties = p.toArray(new String[p.size()]);
+         this.defaultValues = d.toArray(new String[d.size()]);
+         this.length = 0;
+
+         for (String literal : literals)
          {
-            input = prefix + defaultValue + postfix;
+            if (literal != null)
+               length += literal.length();
          }
-         else
+      }
+
+      /**
+       * Render the template
+       * @param injection The injection resolving the system properties
+       * @return The output
+       */
+      String render(Injection injection)
+      {
+         StringBuilder sb = new StringBuilder(length + 16 * properties.length);
+
+         for (int i = 0; i < literals.length; i++)
          {
-            input = prefix + postfix;
+            if (properties[i] == null)
+            {
+               sb.append(literals[i]);
+            }
+            else
+            {
+               String value = injection.getSystemProperty(properties[i]);
+
+               if (isEmpty(value))
+                  value = defaultValues[i];
+
+               if (!isEmpty(value))
+               {
+                  if (value.indexOf("${") != -1)
+                     value = injection.getSubstitutionValue(value);
+
+                  sb.append(value);
+               }
+            }
          }
+
+         return sb.toString();
       }
-      return input;
    }
 }
@@ -153,14 +153,52 @@ public class JMX
                                      descriptions, excludeAttributes, excludeOperations);
    }
 
+   /**
+    * Get the key of an operation
+    * @param name The name of the operation
+    * @param signature The parameter types of the operation
+    * @return The key
+    */
+   static String getOperationKey(String name, String[] signature)
+   {
+      if (signature == null || signature.length == 0)
+         return name + "()";
+
+      StringBuilder sb = new StringBuilder(name.length() + 16 * signature.length);
+      sb.append(name);
+      sb.append('(');
+      for (int i = 0; i < signature.length; i++)
+      {
+         if (i > 0)
+            sb.append(',');
+
+         sb.append(signature[i]);
+      }
+      sb.append(')');
+
+      return sb.toString();
+   }
+
    /**
     * Management delegator class based on reflection
+    *
+    * The methods behind the attributes and operations are resolved when the
+    * delegator is created, so a request is dispatched by a single map lookup
     */
    static class ManagementDelegator implements DynamicMBean
    {
       private WeakReference<Object> ref;
       private MBeanInfo info;
 
+      /** The attribute getters */
+      private Map<String, Method> getters;
+
+      /** The attribute setters */
+      private Map<String, Method> setters;
+
+      /** The operations */
+      private Map<String, Method> operations;
+
       /**
        * Constructor
        * @param instance The object instance
@@ -180,6 +218,9 @@ public class JMX
          throws SecurityException
       {
          this.ref = new WeakReference<Object>(instance);
+         this.getters = new HashMap<String, Method>();
+         this.setters = new HashMap<String, Method>();
+         this.operations = new HashMap<String, Method>();
 
          List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
          List<MBeanOperationInfo> ops = new ArrayList<MBeanOperationInfo>();
@@ -354,6 +395,12 @@ public class JMX
             
                MBeanAttributeInfo mai = new MBeanAttributeInfo(name, desc, getMethod, setMethod);
                attrs.add(mai);
+
+               if (getMethod != null)
+                  getters.put(name, accessible(getMethod));
+
+               if (setMethod != null)
+                  setters.put(name, accessible(setMethod));
             }
             catch (Throwable t)
             {
@@ -378,6 +425,7 @@ public class JMX
                for (Method operation : operations)
                {
                   MBeanParameterInfo[] signature = null;
+                  String[] types = new String[operation.getParameterTypes().length];
 
                   if (operation.getParameterTypes().length > 0)
                   {
@@ -389,6 +437,7 @@ public class JMX
                                                                        "");
 
                         signature[i] = pi;
+                        types[i] = pi.getType();
                      }
                   }
 
@@ -399,6 +448,7 @@ public class JMX
                                                                   MBeanOperationInfo.UNKNOWN);
 
                   ops.add(moi);
+                  this.operations.put(getOperationKey(name, types), accessible(operation));
                }
             }
             catch (Throwable t)
@@ -422,52 +472,82 @@ public class JMX
       }
 
       /**
-       * {@inheritDoc}
+       * Make a method accessible
+       * @param method The method
+       * @return The method
        */
-      public Object getAttribute(String attribute) throws AttributeNotFoundException,
-                                                          MBeanException,
-                                                          ReflectionException 
+      private static Method accessible(Method method)
       {
-         if (attribute == null)
-            throw new AttributeNotFoundException("Invalid attribute name: null");
+         try
+         {
+            method.setAccessible(true);
+         }
+         catch (Throwable t)
+         {
+            // Nothing to do
+         }
 
-         Object instance = ref.get();
-         if (instance == null)
-            throw new MBeanException(null, "Instance garbaged collected");
+         return method;
+      }
+
+      /**
+       * Get the name of an attribute as exposed in the management view
+       * @param attribute The attribute
+       * @return The name
+       */
+      private static String getName(String attribute)
+      {
+         if (attribute.length() == 0 || Character.isUpperCase(attribute.charAt(0)))
+            return attribute;
 
          String name = attribute.substring(0, 1).toUpperCase(Locale.US);
          if (attribute.length() > 1)
             name += attribute.substring(1);
 
-         for (MBeanAttributeInfo mai : info.getAttributes())
-         {
-            if (name.equals(mai.getName()))
-            {
-               try
-               {
-                  Method method = null;
+         return name;
+      }
 
-                  if (!mai.isIs())
-                  {
-                     method = instance.getClass().getMethod("get" + name, (Class[])null);
-                  }
-                  else
-                  {
-                     method = instance.getClass().getMethod("is" + name, (Class[])null);
-                  }
+      /**
+       * Get the value of an attribute
+       * @param instance The object instance
+       * @param attribute The attribute
+       * @return The value
+       * @exception AttributeNotFoundException Thrown if the attribute isn't readable
+       * @exception MBeanException Thrown if the value can't be read
+       */
+      private Object getAttribute(Object instance, String attribute) throws AttributeNotFoundException,
+                                                                            MBeanException
+      {
+         Method method = getters.get(getName(attribute));
 
-                  method.setAccessible(true);
+         if (method == null)
+            throw new AttributeNotFoundException("Invalid attribute name: " + attribute);
 
-                  return method.invoke(instance, (Object[])null);
-               }
-               catch (Exception e)
-               {
-                  throw new MBeanException(e, "Exception during getAttribute(" + attribute + ")");
-               }
-            }
+         try
+         {
+            return method.invoke(instance, (Object[])null);
+         }
+         catch (Exception e)
+         {
+            throw new MBeanException(e, "Exception during getAttribute(" + attribute + ")");
          }
+      }
 
-         throw new AttributeNotFoundException("Invalid attribute name: " + attribute);
+      /**
+       * {@inheritDoc}
+       */
+      public Object getAttribute(String attribute) throws AttributeNotFoundException,
+                                                          MBeanException,
+                                                          ReflectionException 
+      {
+         if (attribute == null)
+            throw new AttributeNotFoundException("Invalid attribute name: null");
+
+         Object instance = ref.get();
+         if (instance == null)
+            throw new MBeanException(null, "Instance garbaged collected");
+
+         return getAttribute(instance, attribute);
       }
 
       /**
@@ -477,17 +557,24 @@ public class JMX
       {
          if (attributes != null)
          {
-            AttributeList result = new AttributeList();
+            AttributeList result = new AttributeList(attributes.length);
+
+            Object instance = ref.get();
+            if (instance == null)
+               return result;
 
             for (String attr : attributes)
             {
-               try
+               if (attr != null)
                {
-                  result.add(getAttribute(attr));
-               }
-               catch (Throwable t)
-               {
-                  // Nothing to do
+                  try
+                  {
+                     result.add(new Attribute(attr, getAttribute(instance, attr)));
+                  }
+                  catch (Throwable t)
+                  {
+                     // Nothing to do
+                  }
                }
             }
 
@@ -515,62 +602,18 @@ public class JMX
          if (instance == null)
             throw new MBeanException(null, "Instance garbaged collected");
 
-         for (MBeanOperationInfo moi : info.getOperations())
+         Method method = operations.get(getOperationKey(actionName, signature));
+
+         if (method != null)
          {
-            if (actionName.equals(moi.getName()))
+            try
             {
-               boolean correct = false;
-               
-               if (signature == null && moi.getSignature() == null)
-               {
-                  correct = true;
-               }
-               else if (signature != null && moi.getSignature() != null)
-               {
-                  if (signature.length == moi.getSignature().length)
-                  {
-                     correct = true;
-
-                     for (int i = 0; correct && i < signature.length; i++)
-                     {
-                        MBeanParameterInfo mpi = moi.getSignature()[i];
-
-                        if (!signature[i].equals(mpi.getType()))
-                           correct = false;
-                     }
-                  }
-               }
-
-               if (correct)
-               {
-                  try
-                  {
-                     Class[] paramTypes = null;
-
-                     if (signature != null && signature.length > 0)
-                     {
-                        List<Class<?>> l = new ArrayList<Class<?>>(signature.length);
-
-                        for (String paramType : signature)
-                        {
-                           Class<?> clz = Class.forName(paramType, true, instance.getClass().getClassLoader());
-                           l.add(clz);
-                        }
-
-                        paramTypes = l.toArray(new Class<?>[l.size()]);
-                     }
-
-                     Method method = instance.getClass().getMethod(actionName, paramTypes);
-                     method.setAccessible(true);
-
-                     return method.invoke(instance, params);
-                  }
-                  catch (Exception e)
-                  {
-                     throw new MBeanException(e, "Exception during invoke(" + actionName + ", " +
-                                              Arrays.toString(params) + ", " + Arrays.toString(signature) + ")");
-                  }
-               }
+               return method.invoke(instance, params);
+            }
+            catch (Exception e)
+            {
+               throw new MBeanException(e, "Exception during invoke(" + actionName + ", " +
+                                        Arrays.toString(params) + ", " + Arrays.toString(signature) + ")");
             }
          }
 
@@ -592,26 +635,17 @@ public class JMX
          if (instance == null)
             throw new MBeanException(null, "Instance garbaged collected");
 
-         String name = attribute.getName().substring(0, 1).toUpperCase(Locale.US);
-         if (attribute.getName().length() > 1)
-            name += attribute.getName().substring(1);
+         Method method = setters.get(getName(attribute.getName()));
 
-         for (MBeanAttributeInfo mai : info.getAttributes())
+         if (method != null)
          {
-            if (name.equals(mai.getName()))
+            try
             {
-               try
-               {
-                  Class<?> type = Class.forName(mai.getType(), true, instance.getClass().getClassLoader());
-                  Method method = instance.getClass().getMethod("set" + name, new Class<?>[] {type});
-                  method.setAccessible(true);
-
-                  method.invoke(instance, new Object[] {attribute.getValue()});
-               }
-               catch (Exception e)
-               {
-                  throw new MBeanException(e, "Exception during setAttribute(" + attribute + ")");
-               }
+               method.invoke(instance, new Object[] {attribute.getValue()});
+            }
+            catch (Exception e)
+            {
+               throw new MBeanException(e, "Exception during setAttribute(" + attribute + ")");
             }
          }
       }
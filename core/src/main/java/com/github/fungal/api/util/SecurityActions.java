@@ -22,6 +22,7 @@ package com.github.fungal.api.util;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Properties;
 
 /**
  * Privileged Blocks
@@ -58,4 +59,30 @@ class SecurityActions
          });
       }
    }
+
+   /**
+    * Get a copy of the system properties
+    * @return The properties
+    */
+   static Properties getSystemProperties()
+   {
+      if (System.getSecurityManager() == null)
+      {
+         Properties properties = new Properties();
+         properties.putAll(System.getProperties());
+         return properties;
+      }
+      else
+      {
+         return (Properties)AccessController.doPrivileged(new PrivilegedAction<Object>() 
+         {
+            public Object run()
+            {
+               Properties properties = new Properties();
+               properties.putAll(System.getProperties());
+               return properties;
+            }
+         });
+      }
+   }
 }
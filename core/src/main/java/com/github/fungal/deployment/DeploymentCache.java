@@ -0,0 +1,715 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.github.fungal.deployment;
+
+import com.github.fungal.api.deployment.Bean;
+import com.github.fungal.api.deployment.Constructor;
+import com.github.fungal.api.deployment.Create;
+import com.github.fungal.api.deployment.Depends;
+import com.github.fungal.api.deployment.Destroy;
+import com.github.fungal.api.deployment.Entry;
+import com.github.fungal.api.deployment.Factory;
+import com.github.fungal.api.deployment.Incallback;
+import com.github.fungal.api.deployment.Inject;
+import com.github.fungal.api.deployment.Install;
+import com.github.fungal.api.deployment.Key;
+import com.github.fungal.api.deployment.List;
+import com.github.fungal.api.deployment.Map;
+import com.github.fungal.api.deployment.Null;
+import com.github.fungal.api.deployment.Parameter;
+import com.github.fungal.api.deployment.Property;
+import com.github.fungal.api.deployment.Set;
+import com.github.fungal.api.deployment.Start;
+import com.github.fungal.api.deployment.Stop;
+import com.github.fungal.api.deployment.This;
+import com.github.fungal.api.deployment.Uncallback;
+import com.github.fungal.api.deployment.Uninstall;
+import com.github.fungal.api.deployment.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of parsed deployment descriptors in a compact binary form. An entry is
+ * used as long as the size, the last modified time and the SHA-1 hash of the
+ * descriptor are unchanged
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+final class DeploymentCache
+{
+   /** Magic */
+   private static final int MAGIC = 0x46444550;
+
+   /** Format version */
+   private static final int FORMAT = 1;
+
+   /** Content: String */
+   private static final byte STRING = 0;
+
+   /** Content: Inject */
+   private static final byte INJECT = 1;
+
+   /** Content: Set */
+   private static final byte SET = 2;
+
+   /** Content: Map */
+   private static final byte MAP = 3;
+
+   /** Content: List */
+   private static final byte LIST = 4;
+
+   /** Content: Null */
+   private static final byte NULL = 5;
+
+   /** Content: This */
+   private static final byte THIS = 6;
+
+   /** The logger */
+   private static Logger log = Logger.getLogger(DeploymentCache.class.getName());
+
+   /** The cache directory */
+   private File directory;
+
+   /**
+    * Constructor
+    * @param directory The cache directory
+    */
+   DeploymentCache(File directory)
+   {
+      if (directory == null)
+         throw new IllegalArgumentException("Directory is null");
+
+      this.directory = directory;
+   }
+
+   /**
+    * Get the cached deployment for a descriptor
+    * @param source The descriptor
+    * @param content The content of the descriptor
+    * @return The deployment; <code>null</code> if there is no valid entry
+    */
+   Deployment load(File source, byte[] content)
+   {
+      File f = getFile(source);
+
+      if (!f.exists())
+         return null;
+
+      DataInputStream dis = null;
+      try
+      {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 8192));
+
+         if (dis.readInt() != MAGIC || dis.readInt() != FORMAT)
+            return null;
+
+         if (!source.getAbsolutePath().equals(readString(dis)))
+            return null;
+
+         if (dis.readLong() != content.length || dis.readLong() != source.lastModified())
+            return null;
+
+         byte[] hash = new byte[dis.readInt()];
+         dis.readFully(hash);
+
+         if (!Arrays.equals(hash, hash(content)))
+            return null;
+
+         Deployment deployment = new Deployment();
+
+         int beans = dis.readInt();
+         for (int i = 0; i < beans; i++)
+         {
+            deployment.getBean().add(readBean(dis));
+         }
+
+         return deployment;
+      }
+      catch (Throwable t)
+      {
+         log.log(Level.FINE, "Invalid cache entry for " + source, t);
+         return null;
+      }
+      finally
+      {
+         if (dis != null)
+         {
+            try
+            {
+               dis.close();
+            }
+            catch (IOException ioe)
+            {
+               // Ignore
+            }
+         }
+      }
+   }
+
+   /**
+    * Store the deployment for a descriptor
+    * @param source The descriptor
+    * @param content The content of the descriptor
+    * @param deployment The deployment
+    */
+   void store(File source, byte[] content, Deployment deployment)
+   {
+      File f = getFile(source);
+      File tmp = new File(directory, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+
+      DataOutputStream dos = null;
+      try
+      {
+         if (!directory.exists() && !directory.mkdirs() && !directory.exists())
+            return;
+
+         dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 8192));
+
+         dos.writeInt(MAGIC);
+         dos.writeInt(FORMAT);
+         writeString(dos, source.getAbsolutePath());
+         dos.writeLong(content.length);
+         dos.writeLong(source.lastModified());
+
+         byte[] hash = hash(content);
+         dos.writeInt(hash.length);
+         dos.write(hash);
+
+         dos.writeInt(deployment.getBean().size());
+         for (Bean bean : deployment.getBean())
+         {
+            writeBean(dos, bean);
+         }
+
+         dos.flush();
+         dos.close();
+         dos = null;
+
+         if (!tmp.renameTo(f))
+         {
+            f.delete();
+
+            if (!tmp.renameTo(f))
+               tmp.delete();
+         }
+      }
+      catch (Throwable t)
+      {
+         log.log(Level.FINE, "Unable to cache " + source, t);
+      }
+      finally
+      {
+         if (dos != null)
+         {
+            try
+            {
+               dos.close();
+            }
+            catch (IOException ioe)
+            {
+               // Ignore
+            }
+
+            tmp.delete();
+         }
+      }
+   }
+
+   /**
+    * Get the cache file for a descriptor
+    * @param source The descriptor
+    * @return The file
+    */
+   private File getFile(File source)
+   {
+      String path = source.getAbsolutePath();
+      String name = source.getName();
+
+      return new File(directory, name + "-" + Integer.toHexString(path.hashCode()) + ".bin");
+   }
+
+   /**
+    * Get the SHA-1 hash of the content
+    * @param content The content
+    * @return The hash
+    * @exception NoSuchAlgorithmException Thrown if SHA-1 isn't available
+    */
+   private static byte[] hash(byte[] content) throws NoSuchAlgorithmException
+   {
+      return MessageDigest.getInstance("SHA-1").digest(content);
+   }
+
+   /**
+    * Write: Bean
+    * @param dos The output stream
+    * @param bean The bean
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void writeBean(DataOutputStream dos, Bean bean) throws IOException
+   {
+      writeString(dos, bean.getName());
+      writeString(dos, bean.getClazz());
+      writeString(dos, bean.getInterface());
+
+      Constructor constructor = bean.getConstructor();
+      dos.writeBoolean(constructor != null);
+      if (constructor != null)
+      {
+         writeString(dos, constructor.getFactoryMethod());
+         writeString(dos, constructor.getFactoryClass());
+         writeString(dos, constructor.getFactory() != null ? constructor.getFactory().getBean() : null);
+
+         dos.writeInt(constructor.getParameter().size());
+         for (Parameter parameter : constructor.getParameter())
+         {
+            writeString(dos, parameter.getClazz());
+            writeContent(dos, parameter.getContent());
+         }
+      }
+
+      dos.writeInt(bean.getProperty().size());
+      for (Property property : bean.getProperty())
+      {
+         writeString(dos, property.getName());
+         writeString(dos, property.getClazz());
+         writeContent(dos, property.getContent());
+      }
+
+      dos.writeInt(bean.getDepends().size());
+      for (Depends depends : bean.getDepends())
+      {
+         writeString(dos, depends.getValue());
+      }
+
+      dos.writeInt(bean.getInstall().size());
+      for (Install install : bean.getInstall())
+      {
+         writeString(dos, install.getMethod());
+      }
+
+      dos.writeInt(bean.getUninstall().size());
+      for (Uninstall uninstall : bean.getUninstall())
+      {
+         writeString(dos, uninstall.getMethod());
+      }
+
+      dos.writeInt(bean.getIncallback().size());
+      for (Incallback incallback : bean.getIncallback())
+      {
+         writeString(dos, incallback.getMethod());
+      }
+
+      dos.writeInt(bean.getUncallback().size());
+      for (Uncallback uncallback : bean.getUncallback())
+      {
+         writeString(dos, uncallback.getMethod());
+      }
+
+      dos.writeBoolean(bean.getCreate() != null);
+      if (bean.getCreate() != null)
+         writeString(dos, bean.getCreate().getMethod());
+
+      dos.writeBoolean(bean.getStart() != null);
+      if (bean.getStart() != null)
+         writeString(dos, bean.getStart().getMethod());
+
+      dos.writeBoolean(bean.getStop() != null);
+      if (bean.getStop() != null)
+         writeString(dos, bean.getStop().getMethod());
+
+      dos.writeBoolean(bean.getDestroy() != null);
+      if (bean.getDestroy() != null)
+         writeString(dos, bean.getDestroy().getMethod());
+
+      dos.writeBoolean(bean.isIgnoreCreate());
+      dos.writeBoolean(bean.isIgnoreStart());
+      dos.writeBoolean(bean.isIgnoreStop());
+      dos.writeBoolean(bean.isIgnoreDestroy());
+   }
+
+   /**
+    * Read: Bean
+    * @param dis The input stream
+    * @return The bean
+    * @exception IOException Thrown if an error occurs
+    */
+   private static Bean readBean(DataInputStream dis) throws IOException
+   {
+      Bean bean = new Bean(readString(dis));
+      bean.setClazz(readString(dis));
+      bean.setInterface(readString(dis));
+
+      if (dis.readBoolean())
+      {
+         Constructor constructor = new Constructor();
+         constructor.setFactoryMethod(readString(dis));
+         constructor.setFactoryClass(readString(dis));
+
+         String factoryBean = readString(dis);
+         if (factoryBean != null)
+         {
+            Factory factory = new Factory();
+            factory.setBean(factoryBean);
+            constructor.setFactory(factory);
+         }
+
+         int parameters = dis.readInt();
+         for (int i = 0; i < parameters; i++)
+         {
+            Parameter parameter = new Parameter();
+            parameter.setClazz(readString(dis));
+            readContent(dis, parameter.getContent());
+            constructor.getParameter().add(parameter);
+         }
+
+         bean.setConstructor(constructor);
+      }
+
+      int properties = dis.readInt();
+      for (int i = 0; i < properties; i++)
+      {
+         Property property = new Property(readString(dis));
+         property.setClazz(readString(dis));
+         readContent(dis, property.getContent());
+         bean.getProperty().add(property);
+      }
+
+      int depends = dis.readInt();
+      for (int i = 0; i < depends; i++)
+      {
+         Depends d = new Depends();
+         d.setValue(readString(dis));
+         bean.getDepends().add(d);
+      }
+
+      int installs = dis.readInt();
+      for (int i = 0; i < installs; i++)
+      {
+         Install install = new Install();
+         install.setMethod(readString(dis));
+         bean.getInstall().add(install);
+      }
+
+      int uninstalls = dis.readInt();
+      for (int i = 0; i < uninstalls; i++)
+      {
+         Uninstall uninstall = new Uninstall();
+         uninstall.setMethod(readString(dis));
+         bean.getUninstall().add(uninstall);
+      }
+
+      int incallbacks = dis.readInt();
+      for (int i = 0; i < incallbacks; i++)
+      {
+         Incallback incallback = new Incallback();
+         incallback.setMethod(readString(dis));
+         bean.getIncallback().add(incallback);
+      }
+
+      int uncallbacks = dis.readInt();
+      for (int i = 0; i < uncallbacks; i++)
+      {
+         Uncallback uncallback = new Uncallback();
+         uncallback.setMethod(readString(dis));
+         bean.getUncallback().add(uncallback);
+      }
+
+      if (dis.readBoolean())
+      {
+         Create create = new Create();
+         create.setMethod(readString(dis));
+         bean.setCreate(create);
+      }
+
+      if (dis.readBoolean())
+      {
+         Start start = new Start();
+         start.setMethod(readString(dis));
+         bean.setStart(start);
+      }
+
+      if (dis.readBoolean())
+      {
+         Stop stop = new Stop();
+         stop.setMethod(readString(dis));
+         bean.setStop(stop);
+      }
+
+      if (dis.readBoolean())
+      {
+         Destroy destroy = new Destroy();
+         destroy.setMethod(readString(dis));
+         bean.setDestroy(destroy);
+      }
+
+      bean.setIgnoreCreate(dis.readBoolean());
+      bean.setIgnoreStart(dis.readBoolean());
+      bean.setIgnoreStop(dis.readBoolean());
+      bean.setIgnoreDestroy(dis.readBoolean());
+
+      return bean;
+   }
+
+   /**
+    * Write: Content of a property or a parameter
+    * @param dos The output stream
+    * @param content The content
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void writeContent(DataOutputStream dos, java.util.List<Object> content) throws IOException
+   {
+      dos.writeInt(content.size());
+
+      for (Object o : content)
+      {
+         if (o instanceof String)
+         {
+            dos.writeByte(STRING);
+            writeString(dos, (String)o);
+         }
+         else if (o instanceof Inject)
+         {
+            Inject inject = (Inject)o;
+
+            dos.writeByte(INJECT);
+            writeString(dos, inject.getBean());
+            writeString(dos, inject.getProperty());
+            writeString(dos, inject.getValue());
+         }
+         else if (o instanceof Set)
+         {
+            Set set = (Set)o;
+
+            dos.writeByte(SET);
+            writeString(dos, set.getElementClass());
+            writeString(dos, set.getClazz());
+            writeValues(dos, set.getValue());
+         }
+         else if (o instanceof Map)
+         {
+            Map map = (Map)o;
+
+            dos.writeByte(MAP);
+            writeString(dos, map.getKeyClass());
+            writeString(dos, map.getValueClass());
+            writeString(dos, map.getClazz());
+
+            dos.writeInt(map.getEntry().size());
+            for (Entry entry : map.getEntry())
+            {
+               dos.writeBoolean(entry.getKey() != null);
+               if (entry.getKey() != null)
+                  writeString(dos, entry.getKey().getValue());
+
+               dos.writeBoolean(entry.getValue() != null);
+               if (entry.getValue() != null)
+                  writeString(dos, entry.getValue().getValue());
+            }
+         }
+         else if (o instanceof List)
+         {
+            List list = (List)o;
+
+            dos.writeByte(LIST);
+            writeString(dos, list.getElementClass());
+            writeString(dos, list.getClazz());
+            writeValues(dos, list.getValue());
+         }
+         else if (o instanceof Null)
+         {
+            dos.writeByte(NULL);
+         }
+         else if (o instanceof This)
+         {
+            dos.writeByte(THIS);
+         }
+         else
+         {
+            throw new IOException("Unsupported content: " + o);
+         }
+      }
+   }
+
+   /**
+    * Read: Content of a property or a parameter
+    * @param dis The input stream
+    * @param content The content
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void readContent(DataInputStream dis, java.util.List<Object> content) throws IOException
+   {
+      int size = dis.readInt();
+
+      for (int i = 0; i < size; i++)
+      {
+         byte type = dis.readByte();
+
+         if (type == STRING)
+         {
+            content.add(readString(dis));
+         }
+         else if (type == INJECT)
+         {
+            Inject inject = new Inject(readString(dis));
+            inject.setProperty(readString(dis));
+            inject.setValue(readString(dis));
+            content.add(inject);
+         }
+         else if (type == SET)
+         {
+            Set set = new Set(readString(dis));
+            set.setClazz(readString(dis));
+            readValues(dis, set.getValue());
+            content.add(set);
+         }
+         else if (type == MAP)
+         {
+            Map map = new Map(readString(dis), readString(dis));
+            map.setClazz(readString(dis));
+
+            int entries = dis.readInt();
+            for (int j = 0; j < entries; j++)
+            {
+               Entry entry = new Entry();
+
+               if (dis.readBoolean())
+               {
+                  Key key = new Key();
+                  key.setValue(readString(dis));
+                  entry.setKey(key);
+               }
+
+               if (dis.readBoolean())
+               {
+                  Value value = new Value();
+                  value.setValue(readString(dis));
+                  entry.setValue(value);
+               }
+
+               map.getEntry().add(entry);
+            }
+
+            content.add(map);
+         }
+         else if (type == LIST)
+         {
+            List list = new List(readString(dis));
+            list.setClazz(readString(dis));
+            readValues(dis, list.getValue());
+            content.add(list);
+         }
+         else if (type == NULL)
+         {
+            content.add(new Null());
+         }
+         else if (type == THIS)
+         {
+            content.add(new This());
+         }
+         else
+         {
+            throw new IOException("Unsupported content: " + type);
+         }
+      }
+   }
+
+   /**
+    * Write: Values
+    * @param dos The output stream
+    * @param values The values
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void writeValues(DataOutputStream dos, java.util.List<Value> values) throws IOException
+   {
+      dos.writeInt(values.size());
+      for (Value value : values)
+      {
+         writeString(dos, value.getValue());
+      }
+   }
+
+   /**
+    * Read: Values
+    * @param dis The input stream
+    * @param values The values
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void readValues(DataInputStream dis, java.util.List<Value> values) throws IOException
+   {
+      int size = dis.readInt();
+      for (int i = 0; i < size; i++)
+      {
+         Value value = new Value();
+         value.setValue(readString(dis));
+         values.add(value);
+      }
+   }
+
+   /**
+    * Write a string which may be <code>null</code>
+    * @param dos The output stream
+    * @param s The string
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void writeString(DataOutputStream dos, String s) throws IOException
+   {
+      if (s == null)
+      {
+         dos.writeInt(-1);
+      }
+      else
+      {
+         byte[] data = s.getBytes("UTF-8");
+         dos.writeInt(data.length);
+         dos.write(data);
+      }
+   }
+
+   /**
+    * Read a string which may be <code>null</code>
+    * @param dis The input stream
+    * @return The string
+    * @exception IOException Thrown if an error occurs
+    */
+   private static String readString(DataInputStream dis) throws IOException
+   {
+      int length = dis.readInt();
+
+      if (length < 0)
+         return null;
+
+      byte[] data = new byte[length];
+      dis.readFully(data);
+
+      return new String(data, "UTF-8");
+   }
+}
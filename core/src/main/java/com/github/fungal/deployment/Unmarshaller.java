@@ -45,6 +45,8 @@ import com.github.fungal.api.deployment.Uninstall;
 import com.github.fungal.api.deployment.Value;
  
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -70,11 +72,28 @@ public class Unmarshaller
    /** Trace logging enabled */
    private boolean trace = log.isLoggable(Level.FINEST);
 
+   /** The XML input factory */
+   private static XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+   /** The deployment cache */
+   private DeploymentCache cache;
+
    /**
     * Constructor
     */
    public Unmarshaller()
    {
+      this(null);
+   }
+
+   /**
+    * Constructor
+    * @param cacheDirectory The directory for the binary form of parsed deployments;
+    *                       <code>null</code> if deployments shouldn't be cached
+    */
+   public Unmarshaller(File cacheDirectory)
+   {
+      this.cache = cacheDirectory != null ? new DeploymentCache(cacheDirectory) : null;
    }
 
    /**
@@ -84,6 +103,18 @@ public class Unmarshaller
     * @exception IOException If an I/O error occurs
     */
    public Deployment unmarshal(URL url) throws IOException
+   {
+      return unmarshal(url, null);
+   }
+
+   /**
+    * Unmarshal, notifying a listener of each bean as soon as it has been read
+    * @param url The URL
+    * @param listener The listener; <code>null</code> if none
+    * @return The result
+    * @exception IOException If an I/O error occurs
+    */
+   public Deployment unmarshal(URL url, BeanListener listener) throws IOException
    {
       if (url == null)
          throw new IllegalArgumentException("File is null");
@@ -91,11 +122,38 @@ public class Unmarshaller
       InputStream is = null;
       try
       {
-         Deployment deployment = new Deployment();
-
          if ("file".equals(url.getProtocol()))
          {
             File file = new File(url.toURI());
+
+            if (cache != null)
+            {
+               byte[] content = readContent(file);
+
+               Deployment deployment = cache.load(file, content);
+
+               if (deployment == null)
+               {
+                  deployment = parse(new ByteArrayInputStream(content), listener);
+                  cache.store(file, content, deployment);
+               }
+               else
+               {
+                  if (trace)
+                     log.finest("Cached: " + url);
+
+                  if (listener != null)
+                  {
+                     for (Bean bt : deployment.getBean())
+                     {
+                        listener.beanRead(bt);
+                     }
+                  }
+               }
+
+               return deployment;
+            }
+
             is = new FileInputStream(file);
          }
          else if ("jar".equals(url.getProtocol()))
@@ -110,10 +168,78 @@ public class Unmarshaller
 
          is = new BufferedInputStream(is, 4096);
 
-         XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+         return parse(is, listener);
+      }
+      catch (Throwable t)
+      {
+         throw new IOException(t.getMessage(), t);
+      }
+      finally
+      {
+         try
+         {
+            if (is != null)
+               is.close();
+         }
+         catch (IOException ioe)
+         {
+            // Ignore
+         }
+      }
+   }
 
-         XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(is);
+   /**
+    * Read the content of a file
+    * @param file The file
+    * @return The content
+    * @exception IOException If an I/O error occurs
+    */
+   private byte[] readContent(File file) throws IOException
+   {
+      InputStream is = null;
+      try
+      {
+         is = new FileInputStream(file);
+
+         ByteArrayOutputStream os = new ByteArrayOutputStream((int)Math.max(file.length(), 32));
+         byte[] buffer = new byte[8192];
+         int n;
+
+         while ((n = is.read(buffer)) != -1)
+         {
+            os.write(buffer, 0, n);
+         }
+
+         return os.toByteArray();
+      }
+      finally
+      {
+         try
+         {
+            if (is != null)
+               is.close();
+         }
+         catch (IOException ioe)
+         {
+            // Ignore
+         }
+      }
+   }
+
+   /**
+    * Parse a deployment
+    * @param is The input stream
+    * @param listener The listener; <code>null</code> if none
+    * @return The deployment
+    * @exception Exception Thrown if an exception occurs
+    */
+   private Deployment parse(InputStream is, BeanListener listener) throws Exception
+   {
+      Deployment deployment = new Deployment();
 
+      XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(is);
+      try
+      {
          boolean found = false;
 
          while (xmlStreamReader.hasNext())
@@ -130,32 +256,24 @@ public class Unmarshaller
                   }
                   else if (found && "bean".equals(xmlStreamReader.getLocalName()))
                   {
-                     deployment.getBean().add(readBean(xmlStreamReader));
+                     Bean bt = readBean(xmlStreamReader);
+                     deployment.getBean().add(bt);
+
+                     if (listener != null)
+                        listener.beanRead(bt);
                   }
 
                   break;
                default :
             }
          }
-
-         return deployment;
-      }
-      catch (Throwable t)
-      {
-         throw new IOException(t.getMessage(), t);
       }
       finally
       {
-         try
-         {
-            if (is != null)
-               is.close();
-         }
-         catch (IOException ioe)
-         {
-            // Ignore
-         }
+         xmlStreamReader.close();
       }
+
+      return deployment;
    }
 
    /**
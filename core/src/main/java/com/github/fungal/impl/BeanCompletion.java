@@ -0,0 +1,119 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.github.fungal.impl;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The completion handle of a bean. The handle is completed once the bean
+ * has started or failed, and notifies the dependency latches of its dependants.
+ * Dependants attach to the handle without locking.
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+class BeanCompletion
+{
+   /** The marker for a completed handle */
+   private static final Listener COMPLETED = new Listener(null, null);
+
+   /** The listeners; <code>COMPLETED</code> once the handle is completed */
+   private AtomicReference<Listener> listeners;
+
+   /**
+    * Constructor
+    */
+   BeanCompletion()
+   {
+      this.listeners = new AtomicReference<Listener>(null);
+   }
+
+   /**
+    * Add a dependency latch; the latch is counted down right away if the
+    * handle is already completed
+    * @param dl The dependency latch
+    */
+   void addListener(DependencyLatch dl)
+   {
+      for (;;)
+      {
+         Listener head = listeners.get();
+
+         if (head == COMPLETED)
+         {
+            dl.countDown();
+            return;
+         }
+
+         if (listeners.compareAndSet(head, new Listener(dl, head)))
+            return;
+      }
+   }
+
+   /**
+    * Complete the handle and count down the dependency latches
+    * @return True if the handle was completed by this call; otherwise false
+    */
+   boolean complete()
+   {
+      Listener head = listeners.getAndSet(COMPLETED);
+
+      if (head == COMPLETED)
+         return false;
+
+      while (head != null)
+      {
+         head.latch.countDown();
+         head = head.next;
+      }
+
+      return true;
+   }
+
+   /**
+    * Is the handle completed
+    * @return The value
+    */
+   boolean isCompleted()
+   {
+      return listeners.get() == COMPLETED;
+   }
+
+   /**
+    * A dependency latch waiting for the handle
+    */
+   static class Listener
+   {
+      /** The dependency latch */
+      private DependencyLatch latch;
+
+      /** The next listener */
+      private Listener next;
+
+      /**
+       * Constructor
+       * @param latch The dependency latch
+       * @param next The next listener
+       */
+      Listener(DependencyLatch latch, Listener next)
+      {
+         this.latch = latch;
+         this.next = next;
+      }
+   }
+}
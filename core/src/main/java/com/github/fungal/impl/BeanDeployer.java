@@ -21,7 +21,6 @@
 package com.github.fungal.impl;
 
 import com.github.fungal.api.deployment.Bean;
-import com.github.fungal.api.deployment.Depends;
 import com.github.fungal.api.deployment.Entry;
 import com.github.fungal.api.deployment.Incallback;
 import com.github.fungal.api.deployment.Inject;
@@ -46,6 +45,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -82,6 +83,12 @@ class BeanDeployer implements Runnable
    /** The kernel */
    private KernelImpl kernel;
    
+   /** The dependency graph */
+   private DependencyGraph graph;
+   
+   /** The injection */
+   private Injection injection;
+   
    /** The bean latch */
    private CountDownLatch beansLatch;
    
@@ -127,6 +134,8 @@ class BeanDeployer implements Runnable
     * @param ignoreStops Ignore stop methods for beans
     * @param ignoreDestroys Ignore destroy methods for beans
     * @param kernel The kernel
+    * @param graph The dependency graph of the deployment
+    * @param injection The injection of the deployment
     * @param beansLatch The beans latch
     * @param classLoader The class loader
     * @param log The logger
@@ -139,6 +148,8 @@ class BeanDeployer implements Runnable
                        java.util.Set<String> ignoreStops,
                        java.util.Set<String> ignoreDestroys,
                        KernelImpl kernel,
+                       DependencyGraph graph,
+                       Injection injection,
                        CountDownLatch beansLatch,
                        ClassLoader classLoader,
                        Logger log)
@@ -151,6 +162,8 @@ class BeanDeployer implements Runnable
       this.ignoreStops = ignoreStops;
       this.ignoreDestroys = ignoreDestroys;
       this.kernel = kernel;
+      this.graph = graph;
+      this.injection = injection;
       this.beansLatch = beansLatch;
       this.classLoader = classLoader;
       this.log = log;
@@ -158,44 +171,81 @@ class BeanDeployer implements Runnable
    }
 
    /**
-    * Run
+    * Schedule the bean. The bean is handed to the scheduler once all of
+    * its dependencies have been resolved
+    * @param scheduler The bean scheduler
     */
-   public void run()
+   void schedule(Executor scheduler)
    {
-      SecurityActions.setThreadContextClassLoader(classLoader);
-      
       String beanName = bt.getName();
       try
       {
          if (kernel.getBean(beanName) == null)
          {
-            CountDownLatch dependencies = getDependencies(bt);
+            java.util.Set<String> deps = getDependencies(bt);
 
-            try
+            if (deps != null)
             {
-               if (dependencies != null)
-                  dependencies.await();
+               DependencyLatch dependencies = new DependencyLatch(deps.size(), this, scheduler);
+
+               for (String dependency : deps)
+               {
+                  kernel.addBeanDependants(beanName, dependency, dependencies);
+               }
             }
-            catch (InterruptedException ie)
+            else
             {
-               Thread.interrupted();
+               scheduler.execute(this);
             }
-
-            kernel.setBeanStatus(beanName, ServiceLifecycle.STARTING);
-            
-            Object bean = createBean(bt, classLoader);
-            
-            kernel.addBean(beanName, bean); 
-            beans.add(beanName);
-            
-            kernel.setBeanStatus(beanName, ServiceLifecycle.STARTED);
          }
          else
          {
             log.warning("Warning: A service with name " + beanName + " already exists");
+            beansLatch.countDown();
          }
       }
       catch (Throwable t)
+      {
+         deployException = new DeployException("Installing bean " + beanName, t);
+         kernel.setBeanStatus(beanName, ServiceLifecycle.ERROR);
+         log.log(Level.SEVERE, "Installing bean " + beanName, t);
+         beansLatch.countDown();
+      }
+   }
+
+   /**
+    * Abort the deployment of a bean that hasn't been scheduled
+    * @param cause The cause
+    */
+   void abort(Throwable cause)
+   {
+      String beanName = bt.getName();
+
+      deployException = new DeployException("Installing bean " + beanName, cause);
+      kernel.setBeanStatus(beanName, ServiceLifecycle.ERROR);
+      beansLatch.countDown();
+   }
+
+   /**
+    * Run
+    */
+   public void run()
+   {
+      SecurityActions.setThreadContextClassLoader(classLoader);
+      
+      String beanName = bt.getName();
+      try
+      {
+         kernel.setBeanStatus(beanName, ServiceLifecycle.STARTING);
+            
+         Object bean = createBean(bt, classLoader);
+            
+         kernel.addBean(beanName, bean); 
+         beans.add(beanName);
+            
+         kernel.setBeanStatus(beanName, ServiceLifecycle.STARTED);
+      }
+      catch (Throwable t)
       {
          deployException = new DeployException("Installing bean " + beanName, t);
          kernel.setBeanStatus(beanName, ServiceLifecycle.ERROR);
@@ -205,6 +255,15 @@ class BeanDeployer implements Runnable
       beansLatch.countDown();
    }
 
+   /**
+    * Get the scheduling priority of the bean
+    * @return The value
+    */
+   int getPriority()
+   {
+      return graph.getPriority(bt.getName());
+   }
+
    /**
     * Get deploy exception
     * @return null if no error; otherwise the exception
@@ -217,87 +276,25 @@ class BeanDeployer implements Runnable
    /**
     * Get the dependencies for a bean
     * @paran bt The bean type
-    * @return The count down latch for the dependencies; <code>null</code> if no dependencies
+    * @return The names of the dependencies; <code>null</code> if no dependencies
     * @exception DeployException Thrown if an error occurs
     */
-   private CountDownLatch getDependencies(Bean bt) throws DeployException
+   private java.util.Set<String> getDependencies(Bean bt) throws DeployException
    {
-      java.util.Set<String> deps = null;
-      
-      java.util.List<Depends> dts = bt.getDepends();
-      if (dts.size() > 0)
-      {
-         deps = new HashSet<String>(dts.size());
-         for (Depends dt : dts)
-         {
-            deps.add(dt.getValue());
-         }
-      }
-
-      java.util.List<Property> pts = bt.getProperty();
-      if (pts.size() > 0)
-      {
-         for (Property pt : pts)
-         {
-            Object element = pt.getContent().get(0);
-            
-            if (element != null && element instanceof Inject)
-            {
-               if (deps == null)
-                  deps = new HashSet<String>(1);
-
-               Inject it = (Inject)element;
-               deps.add(it.getBean());
-            }
-         }
-      }
-
-      com.github.fungal.api.deployment.Constructor ct = bt.getConstructor();
-      if (ct != null)
-      {
-         if (ct.getFactory() != null)
-         {
-            if (deps == null)
-               deps = new HashSet<String>(1);
-            
-            deps.add(ct.getFactory().getBean());
-         }
-            
-         if (ct.getParameter() != null && ct.getParameter().size() > 0)
-         {
-            for (Parameter pt : ct.getParameter())
-            {
-               Object v = pt.getContent().get(0);
-               if (v instanceof Inject)
-               {
-                  if (deps == null)
-                     deps = new HashSet<String>(1);
-                  
-                  Inject it = (Inject)v;
-                  deps.add(it.getBean());
-               }
-            }
-         }
-      }
+      java.util.Set<String> deps = graph.getDependencies(bt.getName());
 
-      if (deps != null && deps.size() > 0)
+      if (deps != null)
       {
-         CountDownLatch cdl = new CountDownLatch(deps.size());
-         
          for (String dependency : deps)
          {
             ServiceLifecycle dependencyStatus = kernel.getBeanStatus(dependency);
             
             if (dependencyStatus == null && kernel.isAllBeansRegistered())
                throw new DeployException("Unknown dependency: " + dependency);
-
-            kernel.addBeanDependants(bt.getName(), dependency, cdl);
          }
-         
-         return cdl;
       }
       
-      return null;
+      return deps;
    }
 
    /**
@@ -312,13 +309,14 @@ class BeanDeployer implements Runnable
    {
       Class<?> clz = null;
       Object instance = null;
+
+      long createBegin = System.nanoTime();
       
       if (bt.getClazz() != null && bt.getConstructor() == null)
       {
          clz = Class.forName(bt.getClazz(), true, cl);
          
          java.lang.reflect.Constructor<?> con = findConstructor(clz, null, cl);
-         con.setAccessible(true);
          
          instance = con.newInstance();
       }
@@ -349,7 +347,6 @@ class BeanDeployer implements Runnable
             if (ct.getParameter() == null || ct.getParameter().size() == 0)
             {
                java.lang.reflect.Constructor<?> con = findConstructor(factoryClass, null, cl);
-               con.setAccessible(true);
 
                instance = con.newInstance();
                clz = instance.getClass();
@@ -360,7 +357,6 @@ class BeanDeployer implements Runnable
                   findConstructor(factoryClass, ct.getParameter(), cl);
                Object[] args = getArguments(ct.getParameter(), factoryConstructor.getParameterTypes(), cl);
 
-               factoryConstructor.setAccessible(true);
                instance = factoryConstructor.newInstance(args);
                clz = instance.getClass();
             }
@@ -368,7 +364,6 @@ class BeanDeployer implements Runnable
          else
          {
             Method factoryMethod = findMethod(factoryClass, ct.getFactoryMethod(), ct.getParameter(), cl);
-            factoryMethod.setAccessible(true);
 
             if (ct.getParameter() == null || ct.getParameter().size() == 0)
             {
@@ -384,6 +379,8 @@ class BeanDeployer implements Runnable
          }
       }
 
+      BeanMetadata metadata = BeanMetadata.getMetadata(clz);
+
       // Bean properties
       if (bt.getProperty() != null)
       {
@@ -401,13 +398,9 @@ class BeanDeployer implements Runnable
             if (bt.getCreate() != null && bt.getCreate().getMethod() != null)
                methodName = bt.getCreate().getMethod();
 
-            Method createMethod = clz.getMethod(methodName, (Class[])null);
-            createMethod.setAccessible(true);
-            createMethod.invoke(instance);
-         }
-         catch (NoSuchMethodException nsme)
-         {
-            // No create method
+            Method createMethod = metadata.getMethod(methodName);
+            if (createMethod != null)
+               createMethod.invoke(instance);
          }
          catch (InvocationTargetException ite)
          {
@@ -415,26 +408,30 @@ class BeanDeployer implements Runnable
          }
       }
 
+      graph.setCreateTime(bt.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createBegin));
+
       if (!bt.isIgnoreStart())
       {
+         long startBegin = System.nanoTime();
+
          try
          {
             String methodName = "start";
             if (bt.getStart() != null && bt.getStart().getMethod() != null)
                methodName = bt.getStart().getMethod();
 
-            Method startMethod = clz.getMethod(methodName, (Class[])null);
-            startMethod.setAccessible(true);
-            startMethod.invoke(instance);
-         }
-         catch (NoSuchMethodException nsme)
-         {
-            // No start method
+            Method startMethod = metadata.getMethod(methodName);
+            if (startMethod != null)
+               startMethod.invoke(instance);
          }
          catch (InvocationTargetException ite)
          {
             throw ite.getTargetException();
          }
+         finally
+         {
+            graph.setStartTime(bt.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startBegin));
+         }
       }
 
       if (bt.getStop() != null && bt.getStop().getMethod() != null)
@@ -456,8 +453,10 @@ class BeanDeployer implements Runnable
          {
             try
             {
-               Method method = clz.getMethod(it.getMethod(), (Class[])null);
-               method.setAccessible(true);
+               Method method = metadata.getMethod(it.getMethod());
+               if (method == null)
+                  throw new NoSuchMethodException("Unknown install method:" + it.getMethod());
+
                method.invoke(instance);
             }
             catch (InvocationTargetException ite)
@@ -473,16 +472,11 @@ class BeanDeployer implements Runnable
          java.util.List<Method> methods = new ArrayList<Method>(bt.getUninstall().size());
          for (Uninstall ut : bt.getUninstall())
          {
-            try
-            {
-               Method method = clz.getMethod(ut.getMethod(), (Class[])null);
-               method.setAccessible(true);
-               methods.add(method);
-            }
-            catch (NoSuchMethodException nsme)
-            {
+            Method method = metadata.getMethod(ut.getMethod());
+            if (method == null)
                throw new Exception("Unknown uninstall method:" + ut.getMethod());
-            }
+
+            methods.add(method);
          }
          uninstall.put(bt.getName(), methods);
       }
@@ -493,7 +487,7 @@ class BeanDeployer implements Runnable
          for (Incallback it : bt.getIncallback())
          {
             java.util.List<Method> candidates = new ArrayList<Method>(1);
-            Method[] methods = clz.getMethods();
+            Method[] methods = metadata.getPublicMethods();
 
             for (Method m : methods)
             {
@@ -521,7 +515,7 @@ class BeanDeployer implements Runnable
          for (Uncallback ut : bt.getUncallback())
          {
             java.util.List<Method> candidates = new ArrayList<Method>(1);
-            Method[] methods = clz.getMethods();
+            Method[] methods = metadata.getPublicMethods();
 
             for (Method m : methods)
             {
@@ -566,72 +560,57 @@ class BeanDeployer implements Runnable
     * @return The constructor
     * @exception Throwable Thrown if a constructor cannot be found
     */
-   @SuppressWarnings("unchecked") 
    private java.lang.reflect.Constructor<?> findConstructor(Class<?> clz, java.util.List<Parameter> parameters,
                                                             ClassLoader cl) throws Throwable
    {
+      java.util.List<java.lang.reflect.Constructor<?>> constructors = BeanMetadata.getMetadata(clz).getConstructors();
+
       if (parameters == null || parameters.size() == 0)
       {
-         Class<?> constructorClass = clz;
-         
-         while (constructorClass != null)
+         for (java.lang.reflect.Constructor<?> con : constructors)
          {
-            java.lang.reflect.Constructor[] constructors = constructorClass.getDeclaredConstructors();
-
-            if (constructors != null)
+            if (con.getParameterTypes().length == 0)
             {
-               for (int i = 0; i < constructors.length; i++)
-               {
-                  java.lang.reflect.Constructor<?> con = constructors[i];
-                  if (con.getParameterTypes().length == 0)
-                     return con;
-               }
+               con.setAccessible(true);
+               return con;
             }
-
-            constructorClass = constructorClass.getSuperclass();
          }
       }
       else
       {
-         Class<?> constructorClass = clz;
-
-         while (constructorClass != null)
+         for (java.lang.reflect.Constructor<?> c : constructors)
          {
-            java.lang.reflect.Constructor[] constructors = constructorClass.getDeclaredConstructors();
-
-            for (java.lang.reflect.Constructor<?> c : constructors)
+            if (parameters.size() == c.getParameterTypes().length)
             {
-               if (parameters.size() == c.getParameterTypes().length)
+               boolean include = true;
+
+               for (int i = 0; include && i < parameters.size(); i++)
                {
-                  boolean include = true;
+                  Parameter pt = parameters.get(i);
+                  Class<?> parameterClass = c.getParameterTypes()[i];
 
-                  for (int i = 0; include && i < parameters.size(); i++)
+                  if (pt.getClazz() == null)
                   {
-                     Parameter pt = parameters.get(i);
-                     Class<?> parameterClass = c.getParameterTypes()[i];
-
-                     if (pt.getClazz() == null)
-                     {
-                        if ((!(pt.getContent().get(0) instanceof Inject)) &&
-                            (!(pt.getContent().get(0) instanceof Null)))
-                           if (!SUPPORTED_TYPES.contains(parameterClass))
-                              include = false;
-                     }
-                     else
-                     {
-                        Class<?> pClz = Class.forName(pt.getClazz(), true, cl);
-
-                        if (!parameterClass.equals(pClz))
+                     if ((!(pt.getContent().get(0) instanceof Inject)) &&
+                         (!(pt.getContent().get(0) instanceof Null)))
+                        if (!SUPPORTED_TYPES.contains(parameterClass))
                            include = false;
-                     }
                   }
+                  else
+                  {
+                     Class<?> pClz = Class.forName(pt.getClazz(), true, cl);
+
+                     if (!parameterClass.equals(pClz))
+                        include = false;
+                  }
+               }
                   
-                  if (include)
-                     return c;
+               if (include)
+               {
+                  c.setAccessible(true);
+                  return c;
                }
             }
-
-            constructorClass = constructorClass.getSuperclass();
          }
       }
 
@@ -647,75 +626,60 @@ class BeanDeployer implements Runnable
     * @return The constructor
     * @exception Throwable Thrown if a constructor cannot be found
     */
-   @SuppressWarnings("unchecked") 
    private Method findMethod(Class<?> clz, String name, java.util.List<Parameter> parameters, ClassLoader cl)
       throws Throwable
    {
+      java.util.List<Method> methods = BeanMetadata.getMetadata(clz).getDeclaredMethods();
+
       if (parameters == null || parameters.size() == 0)
       {
-         Class<?> methodClass = clz;
-
-         while (methodClass != null)
+         for (Method method : methods)
          {
-            Method[] methods = methodClass.getDeclaredMethods();
-
-            if (methods != null)
+            if (name.equals(method.getName()) && method.getParameterTypes().length == 0)
             {
-               for (int i = 0; i < methods.length; i++)
-               {
-                  Method method = methods[i];
-                  if (name.equals(method.getName()) && method.getParameterTypes().length == 0)
-                     return method;
-               }
+               method.setAccessible(true);
+               return method;
             }
-
-            methodClass = methodClass.getSuperclass();
          }
       }
       else
       {
-         Class<?> methodClass = clz;
-
-         while (methodClass != null)
+         for (Method m : methods)
          {
-            Method[] methods = methodClass.getDeclaredMethods();
-
-            for (Method m : methods)
+            if (m.getName().equals(name))
             {
-               if (m.getName().equals(name))
+               if (parameters.size() == m.getParameterTypes().length)
                {
-                  if (parameters.size() == m.getParameterTypes().length)
+                  boolean include = true;
+
+                  for (int i = 0; include && i < parameters.size(); i++)
                   {
-                     boolean include = true;
+                     Parameter pt = parameters.get(i);
+                     Class<?> parameterClass = m.getParameterTypes()[i];
 
-                     for (int i = 0; include && i < parameters.size(); i++)
+                     if (pt.getClazz() == null)
                      {
-                        Parameter pt = parameters.get(i);
-                        Class<?> parameterClass = m.getParameterTypes()[i];
-
-                        if (pt.getClazz() == null)
-                        {
-                           if ((!(pt.getContent().get(0) instanceof Inject)) &&
-                               (!(pt.getContent().get(0) instanceof Null)))
-                              if (!SUPPORTED_TYPES.contains(parameterClass))
-                                 include = false;
-                        }
-                        else
-                        {
-                           Class<?> pClz = Class.forName(pt.getClazz(), true, cl);
-                           
-                           if (!parameterClass.equals(pClz))
+                        if ((!(pt.getContent().get(0) instanceof Inject)) &&
+                            (!(pt.getContent().get(0) instanceof Null)))
+                           if (!SUPPORTED_TYPES.contains(parameterClass))
                               include = false;
-                        }
                      }
+                     else
+                     {
+                        Class<?> pClz = Class.forName(pt.getClazz(), true, cl);
+                           
+                        if (!parameterClass.equals(pClz))
+                           include = false;
+                     }
+                  }
 
-                     if (include)
-                        return m;
+                  if (include)
+                  {
+                     m.setAccessible(true);
+                     return m;
                   }
                }
             }
-
-            methodClass = methodClass.getSuperclass();
          }
       }
 
@@ -738,7 +702,6 @@ class BeanDeployer implements Runnable
 
       Object[] args = new Object[types.length];
 
-      Injection injection = new Injection();
       for (int i = 0; i < definitions.size(); i++)
       {
          Parameter parameter = definitions.get(i);
@@ -785,27 +748,18 @@ class BeanDeployer implements Runnable
          if (it.getProperty().length() > 1)
             baseName += it.getProperty().substring(1);
 
-         try
-         {
-            String getMethodName = "get" + baseName;
-            method = injectionObject.getClass().getMethod(getMethodName, (Class[])null);
-         }
-         catch (NoSuchMethodException nsme)
-         {
-            try
-            {
-               String isMethodName = "is" + baseName;
-               method = injectionObject.getClass().getMethod(isMethodName, (Class[])null);
-            }
-            catch (NoSuchMethodException insme)
-            {
-               field = injectionObject.getClass().getField(it.getProperty());
-            }
-         }
+         BeanMetadata metadata = BeanMetadata.getMetadata(injectionObject.getClass());
+
+         method = metadata.getMethod("get" + baseName);
+
+         if (method == null)
+            method = metadata.getMethod("is" + baseName);
+
+         if (method == null)
+            field = injectionObject.getClass().getField(it.getProperty());
 
          if (method != null)
          {
-            method.setAccessible(true);
             return method.invoke(injectionObject);
          }
          else
@@ -830,19 +784,15 @@ class BeanDeployer implements Runnable
    @SuppressWarnings("unchecked") 
    private void setBeanProperty(Object instance, Property pt, ClassLoader cl) throws Exception
    {
-      Injection injection = new Injection();
-
       String name = "set" + pt.getName().substring(0, 1).toUpperCase(Locale.US);
       if (pt.getName().length() > 1)
          name += pt.getName().substring(1);
 
-      Method m = injection.findMethod(instance.getClass(), name, pt.getClazz());
+      Method m = BeanMetadata.getMetadata(instance.getClass()).getSetter(name, pt.getClazz(), injection);
       
       if (m == null)
          throw new Exception("Property " + pt.getName() + " not found on " + instance.getClass().getName());
 
-      m.setAccessible(true);
-
       Class<?> parameterClass = m.getParameterTypes()[0];
       
       Object parameterValue = null;
@@ -59,6 +59,9 @@ public class BeanDeploymentImpl implements BeanDeployment
    /** Ignore destroy */
    private Set<String> ignoreDestroys;
 
+   /** The dependency graph */
+   private DependencyGraph graph;
+
    /** The kernel */
    private KernelImpl kernel;
 
@@ -71,6 +74,7 @@ public class BeanDeploymentImpl implements BeanDeployment
     * @param destroys Destroy methods for beans
     * @param ignoreStops Ignore stop methods for beans
     * @param ignoreDestroys Ignore destroy methods for beans
+    * @param graph The dependency graph
     * @param kernel The kernel
     */
    public BeanDeploymentImpl(URL deployment, 
@@ -80,6 +84,7 @@ public class BeanDeploymentImpl implements BeanDeployment
                              Map<String, String> destroys,
                              Set<String> ignoreStops,
                              Set<String> ignoreDestroys,
+                             DependencyGraph graph,
                              KernelImpl kernel)
    {
       if (beans == null)
@@ -98,6 +103,7 @@ public class BeanDeploymentImpl implements BeanDeployment
       this.destroys = destroys;
       this.ignoreStops = ignoreStops;
       this.ignoreDestroys = ignoreDestroys;
+      this.graph = graph;
       this.kernel = kernel;
    }
 
@@ -110,6 +116,15 @@ public class BeanDeploymentImpl implements BeanDeployment
       return beans;
    }
 
+   /**
+    * Get the dependency graph
+    * @return The value
+    */
+   DependencyGraph getDependencyGraph()
+   {
+      return graph;
+   }
+
    /**
     * Get the unique URL for the deployment
     * @return The URL
@@ -182,47 +197,43 @@ public class BeanDeploymentImpl implements BeanDeployment
 
       for (String name : shutdownBeans)
       {
-         try
-         {
-            kernel.setBeanStatus(name, ServiceLifecycle.STOPPING);
+         Throwable t = destroyBean(name);
 
-            Object bean = kernel.getBean(name);
+         if (throwable == null)
+            throwable = t;
+      }
 
-            if (bean != null)
-            {
-               List<Method> l = uninstall.get(name);
-               if (l != null)
-               {
-                  for (Method m : l)
-                  {
-                     try
-                     {
-                        m.setAccessible(true);
-                        m.invoke(bean, (Object[])null);
-                     }
-                     catch (InvocationTargetException ite)
-                     {
-                        if (throwable == null)
-                           throwable = ite.getTargetException();
-                     }
-                  }
-               }
+      if (throwable != null)
+         throw throwable;
+   }
 
-               if (ignoreStops == null || !ignoreStops.contains(name))
+   /**
+    * Stop, destroy and remove a bean of the deployment
+    * @param name The name of the bean
+    * @return The first error; <code>null</code> if the bean was destroyed without errors
+    */
+   Throwable destroyBean(String name)
+   {
+      Throwable throwable = null;
+
+      try
+      {
+         kernel.setBeanStatus(name, ServiceLifecycle.STOPPING);
+
+         Object bean = kernel.getBean(name);
+
+         if (bean != null)
+         {
+            BeanMetadata metadata = BeanMetadata.getMetadata(bean.getClass());
+
+            List<Method> l = uninstall.get(name);
+            if (l != null)
+            {
+               for (Method m : l)
                {
                   try
                   {
-                     String methodName = "stop";
-                     if (stops != null && stops.containsKey(name))
-                        methodName = stops.get(name);
-
-                     Method stopMethod = bean.getClass().getMethod(methodName, (Class[])null);
-                     stopMethod.setAccessible(true);
-                     stopMethod.invoke(bean, (Object[])null);
-                  }
-                  catch (NoSuchMethodException nsme)
-                  {
-                     // No stop method
+                     m.invoke(bean, (Object[])null);
                   }
                   catch (InvocationTargetException ite)
                   {
@@ -230,43 +241,57 @@ public class BeanDeploymentImpl implements BeanDeployment
                         throwable = ite.getTargetException();
                   }
                }
+            }
 
-               if (ignoreDestroys == null || !ignoreDestroys.contains(name))
+            if (ignoreStops == null || !ignoreStops.contains(name))
+            {
+               try
                {
-                  try
-                  {
-                     String methodName = "destroy";
-                     if (destroys != null && destroys.containsKey(name))
-                        methodName = destroys.get(name);
+                  String methodName = "stop";
+                  if (stops != null && stops.containsKey(name))
+                     methodName = stops.get(name);
+
+                  Method stopMethod = metadata.getMethod(methodName);
+                  if (stopMethod != null)
+                     stopMethod.invoke(bean, (Object[])null);
+               }
+               catch (InvocationTargetException ite)
+               {
+                  if (throwable == null)
+                     throwable = ite.getTargetException();
+               }
+            }
+
+            if (ignoreDestroys == null || !ignoreDestroys.contains(name))
+            {
+               try
+               {
+                  String methodName = "destroy";
+                  if (destroys != null && destroys.containsKey(name))
+                     methodName = destroys.get(name);
 
-                     Method destroyMethod = bean.getClass().getMethod(methodName, (Class[])null);
-                     destroyMethod.setAccessible(true);
+                  Method destroyMethod = metadata.getMethod(methodName);
+                  if (destroyMethod != null)
                      destroyMethod.invoke(bean, (Object[])null);
-                  }
-                  catch (NoSuchMethodException nsme)
-                  {
-                     // No destroy method
-                  }
-                  catch (InvocationTargetException ite)
-                  {
-                     if (throwable == null)
-                        throwable = ite.getTargetException();
-                  }
+               }
+               catch (InvocationTargetException ite)
+               {
+                  if (throwable == null)
+                     throwable = ite.getTargetException();
                }
             }
          }
-         catch (Throwable t)
-         {
-            if (throwable == null)
-               throwable = t;
-         }
-         finally
-         {
-            kernel.removeBean(name);
-         }
+      }
+      catch (Throwable t)
+      {
+         if (throwable == null)
+            throwable = t;
+      }
+      finally
+      {
+         kernel.removeBean(name);
       }
 
-      if (throwable != null)
-         throw throwable;
+      return throwable;
    }
 }
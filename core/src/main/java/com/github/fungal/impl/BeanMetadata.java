@@ -0,0 +1,270 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.github.fungal.impl;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The reflective metadata of a bean class.
+ *
+ * The resolved constructors, lifecycle methods and setters of a class are
+ * kept such that beans of the same class doesn't pay the lookup cost again.
+ * The cache is keyed weakly by class, and the metadata itself is only
+ * strongly referenced by the kernel while beans of the class are installed,
+ * so a redeploy doesn't leak class loaders.
+ *
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+final class BeanMetadata
+{
+   /** The cache */
+   private static final Map<Class<?>, WeakReference<BeanMetadata>> CACHE =
+      Collections.synchronizedMap(new WeakHashMap<Class<?>, WeakReference<BeanMetadata>>());
+
+   /** Marker for methods that doesn't exist */
+   private static final Method NO_METHOD;
+
+   /** The class */
+   private Class<?> clz;
+
+   /** Public methods without parameters */
+   private ConcurrentMap<String, Method> methods;
+
+   /** Setter methods */
+   private ConcurrentMap<String, Method> setters;
+
+   /** Declared constructors of the class hierarchy */
+   private volatile List<Constructor<?>> constructors;
+
+   /** Declared methods of the class hierarchy */
+   private volatile List<Method> declaredMethods;
+
+   /** Public methods */
+   private volatile Method[] publicMethods;
+
+   static
+   {
+      try
+      {
+         NO_METHOD = BeanMetadata.class.getDeclaredMethod("noMethod", (Class[])null);
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         throw new IllegalStateException(nsme);
+      }
+   }
+
+   /**
+    * Constructor
+    * @param clz The class
+    */
+   private BeanMetadata(Class<?> clz)
+   {
+      this.clz = clz;
+      this.methods = new ConcurrentHashMap<String, Method>();
+      this.setters = new ConcurrentHashMap<String, Method>();
+      this.constructors = null;
+      this.declaredMethods = null;
+      this.publicMethods = null;
+   }
+
+   /**
+    * Get the metadata for a class
+    * @param clz The class
+    * @return The metadata
+    */
+   static BeanMetadata getMetadata(Class<?> clz)
+   {
+      if (clz == null)
+         throw new IllegalArgumentException("Class is null");
+
+      synchronized (CACHE)
+      {
+         WeakReference<BeanMetadata> ref = CACHE.get(clz);
+         BeanMetadata metadata = ref != null ? ref.get() : null;
+
+         if (metadata == null)
+         {
+            metadata = new BeanMetadata(clz);
+            CACHE.put(clz, new WeakReference<BeanMetadata>(metadata));
+         }
+
+         return metadata;
+      }
+   }
+
+   /**
+    * Get a public method without parameters
+    * @param name The name of the method
+    * @return The accessible method; <code>null</code> if the method doesn't exist
+    */
+   Method getMethod(String name)
+   {
+      Method method = methods.get(name);
+
+      if (method == null)
+      {
+         try
+         {
+            method = clz.getMethod(name, (Class[])null);
+            method.setAccessible(true);
+         }
+         catch (NoSuchMethodException nsme)
+         {
+            method = NO_METHOD;
+         }
+
+         methods.put(name, method);
+      }
+
+      if (method == NO_METHOD)
+         return null;
+
+      return method;
+   }
+
+   /**
+    * Get a setter method
+    * @param name The name of the method
+    * @param type The parameter type; can be <code>null</code>
+    * @param injection The injection utility
+    * @return The accessible method; <code>null</code> if the method doesn't exist
+    */
+   Method getSetter(String name, String type, Injection injection)
+   {
+      String key = type != null ? name + ":" + type : name;
+      Method method = setters.get(key);
+
+      if (method == null)
+      {
+         method = injection.findMethod(clz, name, type);
+
+         if (method != null)
+         {
+            method.setAccessible(true);
+         }
+         else
+         {
+            method = NO_METHOD;
+         }
+
+         setters.put(key, method);
+      }
+
+      if (method == NO_METHOD)
+         return null;
+
+      return method;
+   }
+
+   /**
+    * Get the declared constructors of the class hierarchy
+    * @return The constructors
+    */
+   List<Constructor<?>> getConstructors()
+   {
+      List<Constructor<?>> result = constructors;
+
+      if (result == null)
+      {
+         result = new ArrayList<Constructor<?>>();
+
+         Class<?> c = clz;
+         while (c != null)
+         {
+            for (Constructor<?> con : c.getDeclaredConstructors())
+            {
+               result.add(con);
+            }
+
+            c = c.getSuperclass();
+         }
+
+         result = Collections.unmodifiableList(result);
+         constructors = result;
+      }
+
+      return result;
+   }
+
+   /**
+    * Get the declared methods of the class hierarchy
+    * @return The methods
+    */
+   List<Method> getDeclaredMethods()
+   {
+      List<Method> result = declaredMethods;
+
+      if (result == null)
+      {
+         result = new ArrayList<Method>();
+
+         Class<?> c = clz;
+         while (c != null)
+         {
+            for (Method m : c.getDeclaredMethods())
+            {
+               result.add(m);
+            }
+
+            c = c.getSuperclass();
+         }
+
+         result = Collections.unmodifiableList(result);
+         declaredMethods = result;
+      }
+
+      return result;
+   }
+
+   /**
+    * Get the public methods
+    * @return The methods
+    */
+   Method[] getPublicMethods()
+   {
+      Method[] result = publicMethods;
+
+      if (result == null)
+      {
+         result = clz.getMethods();
+         publicMethods = result;
+      }
+
+      return result;
+   }
+
+   /**
+    * Marker method
+    */
+   private static void noMethod()
+   {
+   }
+}
@@ -0,0 +1,192 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.github.fungal.impl;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bean scheduler for Fungal.
+ *
+ * Beans are only handed to the scheduler once all of their dependencies
+ * have started, so the workers never block waiting on other beans and the
+ * pool can be bounded by the number of processors. Ready beans are started
+ * in critical path order, such that the beans heading the longest chains of
+ * a deployment are started first.
+ *
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+class BeanScheduler implements Executor
+{
+   /** The thread group of the workers */
+   private ThreadGroup threadGroup;
+
+   /** The executor */
+   private ThreadPoolExecutor executor;
+
+   /** The task sequence */
+   private AtomicLong sequence;
+
+   /**
+    * Constructor
+    * @param parent The parent thread group
+    * @param threads The number of worker threads
+    */
+   BeanScheduler(ThreadGroup parent, int threads)
+   {
+      if (parent == null)
+         throw new IllegalArgumentException("Parent is null");
+
+      if (threads <= 0)
+         throw new IllegalArgumentException("Threads must be positive");
+
+      this.threadGroup = new ThreadGroup(parent, "fungal-beans");
+
+      this.sequence = new AtomicLong(0);
+
+      BlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+
+      this.executor = new ThreadPoolExecutor(threads, threads,
+                                             60, TimeUnit.SECONDS,
+                                             queue,
+                                             new FungalThreadFactory(threadGroup, "fungal-beans"));
+
+      this.executor.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Execute a task
+    * @param task The task
+    */
+   public void execute(Runnable task)
+   {
+      int priority = 0;
+
+      if (task instanceof BeanDeployer)
+         priority = ((BeanDeployer)task).getPriority();
+
+      executor.execute(new Task(task, priority, sequence.getAndIncrement()));
+   }
+
+   /**
+    * Wait for a set of beans to complete. If the calling thread is one of the
+    * scheduler workers (f.ex. a bean installing other beans during its start
+    * method) it will run pending tasks while waiting, such that the bounded
+    * pool can't deadlock
+    * @param latch The latch for the beans
+    * @exception InterruptedException Thrown if the thread is interrupted
+    */
+   void await(CountDownLatch latch) throws InterruptedException
+   {
+      if (Thread.currentThread().getThreadGroup() != threadGroup)
+      {
+         latch.await();
+         return;
+      }
+
+      ClassLoader cl = SecurityActions.getThreadContextClassLoader();
+      try
+      {
+         while (latch.getCount() > 0)
+         {
+            Runnable task = executor.getQueue().poll();
+
+            if (task != null)
+            {
+               task.run();
+            }
+            else
+            {
+               latch.await(10L, TimeUnit.MILLISECONDS);
+            }
+         }
+      }
+      finally
+      {
+         SecurityActions.setThreadContextClassLoader(cl);
+      }
+   }
+
+   /**
+    * Shutdown
+    */
+   void shutdown()
+   {
+      executor.shutdown();
+   }
+
+   /**
+    * A prioritized task; tasks with the same priority are run in submission order
+    */
+   static class Task implements Runnable, Comparable<Task>
+   {
+      /** The task */
+      private Runnable task;
+
+      /** The priority */
+      private int priority;
+
+      /** The sequence number */
+      private long sequence;
+
+      /**
+       * Constructor
+       * @param task The task
+       * @param priority The priority
+       * @param sequence The sequence number
+       */
+      Task(Runnable task, int priority, long sequence)
+      {
+         this.task = task;
+         this.priority = priority;
+         this.sequence = sequence;
+      }
+
+      /**
+       * Run
+       */
+      public void run()
+      {
+         task.run();
+      }
+
+      /**
+       * Compare
+       * @param o The other task
+       * @return The result
+       */
+      public int compareTo(Task o)
+      {
+         if (priority != o.priority)
+            return priority > o.priority ? -1 : 1;
+
+         if (sequence != o.sequence)
+            return sequence < o.sequence ? -1 : 1;
+
+         return 0;
+      }
+   }
+}
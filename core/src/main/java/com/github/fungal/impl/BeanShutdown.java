@@ -0,0 +1,323 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.github.fungal.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops the beans of a set of bean deployments in parallel.
+ *
+ * A bean is stopped once all the beans that depend on it have been stopped,
+ * so independent beans are stopped concurrently in reverse topological order.
+ * Beans that take longer than the timeout are left running in the background,
+ * and their dependencies are stopped anyway.
+ *
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+final class BeanShutdown
+{
+   /** The logger */
+   private static Logger log = Logger.getLogger(BeanShutdown.class.getName());
+
+   /** The kernel */
+   private KernelImpl kernel;
+
+   /** The executor */
+   private Executor executor;
+
+   /** The maximum number of beans being stopped at the same time */
+   private int threads;
+
+   /** The timeout for each bean in milliseconds */
+   private long timeout;
+
+   /**
+    * Constructor
+    * @param kernel The kernel
+    * @param executor The executor
+    * @param threads The maximum number of beans being stopped at the same time
+    * @param timeout The timeout for each bean in milliseconds; <code>0</code> for none
+    */
+   BeanShutdown(KernelImpl kernel, Executor executor, int threads, long timeout)
+   {
+      if (kernel == null)
+         throw new IllegalArgumentException("Kernel is null");
+
+      if (executor == null)
+         throw new IllegalArgumentException("Executor is null");
+
+      if (threads <= 0)
+         throw new IllegalArgumentException("Threads must be positive");
+
+      this.kernel = kernel;
+      this.executor = executor;
+      this.threads = threads;
+      this.timeout = timeout;
+   }
+
+   /**
+    * Stop the beans of the deployments
+    * @param deployments The deployments in registration order
+    * @return The first error; <code>null</code> if all beans were stopped without errors
+    */
+   Throwable shutdown(List<BeanDeploymentImpl> deployments)
+   {
+      Map<String, BeanDeploymentImpl> owners = new HashMap<String, BeanDeploymentImpl>();
+      Map<String, ClassLoader> classLoaders = new HashMap<String, ClassLoader>();
+      List<String> order = new ArrayList<String>();
+
+      for (BeanDeploymentImpl deployment : deployments)
+      {
+         // Resolved up front, as the deployment looks at its beans
+         ClassLoader cl = deployment.getClassLoader();
+
+         for (String name : deployment.getBeans())
+         {
+            if (!owners.containsKey(name))
+            {
+               owners.put(name, deployment);
+               classLoaders.put(name, cl);
+               order.add(name);
+            }
+         }
+      }
+
+      // The dependencies of each bean, and the number of beans depending on each bean
+      Map<String, List<String>> dependencies = new HashMap<String, List<String>>(order.size());
+      Map<String, Integer> dependants = new HashMap<String, Integer>(order.size());
+
+      for (String name : order)
+      {
+         List<String> l = new ArrayList<String>(1);
+         Set<String> s = kernel.getBeanDependants(name);
+
+         if (s != null)
+         {
+            for (String dependency : new ArrayList<String>(s))
+            {
+               if (!dependency.equals(name) && owners.containsKey(dependency))
+               {
+                  l.add(dependency);
+                  dependants.put(dependency, Integer.valueOf(getCount(dependants, dependency) + 1));
+               }
+            }
+         }
+
+         dependencies.put(name, l);
+      }
+
+      List<String> reverse = new ArrayList<String>(order);
+      Collections.reverse(reverse);
+
+      Set<String> remaining = new LinkedHashSet<String>(reverse);
+      LinkedList<String> ready = new LinkedList<String>();
+
+      for (String name : reverse)
+      {
+         if (getCount(dependants, name) == 0)
+            ready.add(name);
+      }
+
+      BlockingQueue<String> completed = new LinkedBlockingQueue<String>();
+      Map<String, Long> running = new HashMap<String, Long>();
+      List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>(1));
+
+      boolean interrupted = false;
+
+      while (remaining.size() > 0 || running.size() > 0)
+      {
+         while (running.size() < threads && (ready.size() > 0 || (running.size() == 0 && remaining.size() > 0)))
+         {
+            // A cycle leaves no bean ready; stop the beans in reverse order then
+            String name = ready.size() > 0 ? ready.removeFirst() : remaining.iterator().next();
+
+            if (remaining.remove(name))
+            {
+               running.put(name, Long.valueOf(System.currentTimeMillis()));
+               stop(name, owners.get(name), classLoaders.get(name), completed, errors);
+            }
+         }
+
+         if (running.size() == 0)
+            continue;
+
+         String name = null;
+         try
+         {
+            if (timeout > 0)
+            {
+               long wait = getEarliestStart(running) + timeout - System.currentTimeMillis();
+               name = completed.poll(Math.max(wait, 1L), TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+               name = completed.take();
+            }
+         }
+         catch (InterruptedException ie)
+         {
+            interrupted = true;
+         }
+
+         List<String> released = new ArrayList<String>(1);
+
+         if (name != null)
+         {
+            if (running.remove(name) != null)
+               released.add(name);
+         }
+         else if (timeout > 0)
+         {
+            long now = System.currentTimeMillis();
+
+            Iterator<Map.Entry<String, Long>> it = running.entrySet().iterator();
+            while (it.hasNext())
+            {
+               Map.Entry<String, Long> entry = it.next();
+
+               if (now - entry.getValue().longValue() >= timeout)
+               {
+                  log.warning("Bean " + entry.getKey() + " didn't stop within " + timeout + "ms");
+
+                  released.add(entry.getKey());
+                  it.remove();
+               }
+            }
+         }
+
+         for (String r : released)
+         {
+            for (String dependency : dependencies.get(r))
+            {
+               int count = getCount(dependants, dependency) - 1;
+               dependants.put(dependency, Integer.valueOf(count));
+
+               if (count == 0 && remaining.contains(dependency))
+                  ready.add(dependency);
+            }
+         }
+      }
+
+      if (interrupted)
+         Thread.currentThread().interrupt();
+
+      synchronized (errors)
+      {
+         return errors.size() > 0 ? errors.get(0) : null;
+      }
+   }
+
+   /**
+    * Stop a bean on the executor
+    * @param name The name of the bean
+    * @param deployment The deployment of the bean
+    * @param classLoader The class loader of the deployment
+    * @param completed The queue for the completed beans
+    * @param errors The errors
+    */
+   private void stop(final String name, final BeanDeploymentImpl deployment, final ClassLoader classLoader,
+                     final BlockingQueue<String> completed, final List<Throwable> errors)
+   {
+      Runnable r = new Runnable()
+      {
+         public void run()
+         {
+            ClassLoader cl = SecurityActions.getThreadContextClassLoader();
+            try
+            {
+               SecurityActions.setThreadContextClassLoader(classLoader);
+
+               Throwable t = deployment.destroyBean(name);
+               if (t != null)
+               {
+                  log.log(Level.FINE, "Stopping bean " + name, t);
+                  errors.add(t);
+               }
+            }
+            catch (Throwable t)
+            {
+               errors.add(t);
+            }
+            finally
+            {
+               SecurityActions.setThreadContextClassLoader(cl);
+               completed.add(name);
+            }
+         }
+      };
+
+      try
+      {
+         executor.execute(r);
+      }
+      catch (Throwable t)
+      {
+         r.run();
+      }
+   }
+
+   /**
+    * Get a count
+    * @param counts The counts
+    * @param name The name
+    * @return The value
+    */
+   private static int getCount(Map<String, Integer> counts, String name)
+   {
+      Integer count = counts.get(name);
+
+      if (count == null)
+         return 0;
+
+      return count.intValue();
+   }
+
+   /**
+    * Get the earliest start time of the running beans
+    * @param running The running beans
+    * @return The value
+    */
+   private static long getEarliestStart(Map<String, Long> running)
+   {
+      long result = Long.MAX_VALUE;
+
+      for (Long start : running.values())
+      {
+         if (start.longValue() < result)
+            result = start.longValue();
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,598 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.github.fungal.impl;
+
+import com.github.fungal.api.deployment.Bean;
+import com.github.fungal.api.deployment.Constructor;
+import com.github.fungal.api.deployment.Depends;
+import com.github.fungal.api.deployment.Incallback;
+import com.github.fungal.api.deployment.Inject;
+import com.github.fungal.api.deployment.Parameter;
+import com.github.fungal.api.deployment.Property;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dependency graph of the beans in a bean deployment.
+ *
+ * The graph is built from the depends, inject and incallback declarations
+ * of the beans, and is used to hand beans to the scheduler in critical path
+ * order, such that the longest chains are started first. The measured create
+ * and start times of each bean are recorded in the graph as well.
+ *
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+class DependencyGraph
+{
+   /** The nodes */
+   private Map<String, Node> nodes;
+
+   /** The dependants of beans that haven't been added yet */
+   private Map<String, Set<String>> unresolved;
+
+   /** The first cyclic dependency found; <code>null</code> if none */
+   private volatile List<String> cycle;
+
+   /**
+    * Constructor for a graph that is built incrementally
+    */
+   DependencyGraph()
+   {
+      this(null);
+   }
+
+   /**
+    * Constructor
+    * @param beans The beans of the deployment
+    */
+   DependencyGraph(List<Bean> beans)
+   {
+      this.nodes = Collections.synchronizedMap(new LinkedHashMap<String, Node>(beans != null ? beans.size() : 16));
+      this.unresolved = new HashMap<String, Set<String>>();
+      this.cycle = null;
+
+      if (beans != null)
+      {
+         for (Bean bt : beans)
+         {
+            add(bt);
+         }
+
+         calculateDepths();
+      }
+   }
+
+   /**
+    * Add a bean to the graph. Only a single thread may add beans, but the
+    * graph may be queried by other threads while beans are being added
+    * @param bt The bean
+    */
+   void add(Bean bt)
+   {
+      Node node = new Node(bt.getName(), getDependencies(bt));
+
+      if (bt.getIncallback() != null)
+      {
+         for (Incallback ic : bt.getIncallback())
+         {
+            node.incallbacks.add(ic.getMethod());
+         }
+      }
+
+      for (String dependency : node.dependencies)
+      {
+         Node target = nodes.get(dependency);
+         if (target != null)
+         {
+            target.dependants.add(node.name);
+         }
+         else
+         {
+            Set<String> s = unresolved.get(dependency);
+            if (s == null)
+            {
+               s = new LinkedHashSet<String>(1);
+               unresolved.put(dependency, s);
+            }
+            s.add(node.name);
+         }
+      }
+
+      Set<String> dependants = unresolved.remove(node.name);
+      if (dependants != null)
+         node.dependants.addAll(dependants);
+
+      nodes.put(node.name, node);
+   }
+
+   /**
+    * Calculate the depth of all nodes in the graph
+    */
+   void calculateDepths()
+   {
+      synchronized (nodes)
+      {
+         for (Node node : nodes.values())
+         {
+            node.depth = 0;
+         }
+
+         cycle = null;
+
+         Set<String> visiting = new LinkedHashSet<String>();
+         for (Node node : nodes.values())
+         {
+            calculateDepth(node, visiting);
+         }
+      }
+   }
+
+   /**
+    * Get the dependencies declared by a bean
+    * @param bt The bean
+    * @return The names of the beans that the bean depends on
+    */
+   static Set<String> getDependencies(Bean bt)
+   {
+      Set<String> deps = new LinkedHashSet<String>();
+
+      if (bt.getDepends() != null)
+      {
+         for (Depends dt : bt.getDepends())
+         {
+            deps.add(dt.getValue());
+         }
+      }
+
+      if (bt.getProperty() != null)
+      {
+         for (Property pt : bt.getProperty())
+         {
+            Object element = pt.getContent().get(0);
+
+            if (element != null && element instanceof Inject)
+               deps.add(((Inject)element).getBean());
+         }
+      }
+
+      Constructor ct = bt.getConstructor();
+      if (ct != null)
+      {
+         if (ct.getFactory() != null)
+            deps.add(ct.getFactory().getBean());
+
+         if (ct.getParameter() != null)
+         {
+            for (Parameter pt : ct.getParameter())
+            {
+               Object v = pt.getContent().get(0);
+
+               if (v instanceof Inject)
+                  deps.add(((Inject)v).getBean());
+            }
+         }
+      }
+
+      return deps;
+   }
+
+   /**
+    * Calculate the depth of a node, which is the length of the longest chain
+    * of dependants inside the deployment including the node itself
+    * @param node The node
+    * @param visiting The nodes currently being visited
+    * @return The depth
+    */
+   private int calculateDepth(Node node, Set<String> visiting)
+   {
+      if (node.depth > 0)
+         return node.depth;
+
+      if (!visiting.add(node.name))
+      {
+         if (cycle == null)
+         {
+            // The nodes are visited along the dependants, so the path is reversed
+            // to list each bean before the bean it depends on
+            List<String> path = new ArrayList<String>();
+            boolean inCycle = false;
+            for (String name : visiting)
+            {
+               if (name.equals(node.name))
+                  inCycle = true;
+
+               if (inCycle)
+                  path.add(0, name);
+            }
+            path.add(0, node.name);
+
+            cycle = Collections.unmodifiableList(path);
+         }
+
+         return 0;
+      }
+
+      int max = 0;
+      for (String dependant : node.dependants)
+      {
+         int d = calculateDepth(nodes.get(dependant), visiting);
+         if (d > max)
+            max = d;
+      }
+
+      visiting.remove(node.name);
+      node.depth = max + 1;
+
+      return node.depth;
+   }
+
+   /**
+    * Get the first cyclic dependency found when the depths were calculated
+    * @return The names of the beans in the cycle, each bean depending on the next,
+    *         and the last being the first; <code>null</code> if there is no cycle
+    */
+   List<String> getCycle()
+   {
+      return cycle;
+   }
+
+   /**
+    * Get the cyclic dependency as a string
+    * @return The value; <code>null</code> if there is no cycle
+    */
+   String getCycleDescription()
+   {
+      List<String> c = cycle;
+
+      if (c == null)
+         return null;
+
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < c.size(); i++)
+      {
+         if (i > 0)
+            sb = sb.append(" -> ");
+
+         sb = sb.append(c.get(i));
+      }
+
+      return sb.toString();
+   }
+
+   /**
+    * Get the dependencies for a bean
+    * @param name The name of the bean
+    * @return The names of the dependencies; <code>null</code> if the bean doesn't have any
+    */
+   Set<String> getDependencies(String name)
+   {
+      Node node = nodes.get(name);
+
+      if (node == null || node.dependencies.size() == 0)
+         return null;
+
+      return Collections.unmodifiableSet(node.dependencies);
+   }
+
+   /**
+    * Get the priority of a bean; beans on longer chains have a higher priority
+    * @param name The name of the bean
+    * @return The value
+    */
+   int getPriority(String name)
+   {
+      Node node = nodes.get(name);
+
+      if (node == null)
+         return 0;
+
+      return node.depth;
+   }
+
+   /**
+    * Is the bean part of the graph
+    * @param name The name of the bean
+    * @return True if the bean is known; otherwise false
+    */
+   boolean contains(String name)
+   {
+      return nodes.containsKey(name);
+   }
+
+   /**
+    * Record the create time for a bean
+    * @param name The name of the bean
+    * @param time The time in milliseconds
+    */
+   void setCreateTime(String name, long time)
+   {
+      Node node = nodes.get(name);
+
+      if (node != null)
+         node.createTime = time;
+   }
+
+   /**
+    * Get the create time for a bean
+    * @param name The name of the bean
+    * @return The time in milliseconds; <code>-1</code> if not measured
+    */
+   long getCreateTime(String name)
+   {
+      Node node = nodes.get(name);
+
+      if (node == null)
+         return -1L;
+
+      return node.createTime;
+   }
+
+   /**
+    * Record the start time for a bean
+    * @param name The name of the bean
+    * @param time The time in milliseconds
+    */
+   void setStartTime(String name, long time)
+   {
+      Node node = nodes.get(name);
+
+      if (node != null)
+         node.startTime = time;
+   }
+
+   /**
+    * Get the start time for a bean
+    * @param name The name of the bean
+    * @return The time in milliseconds; <code>-1</code> if not measured
+    */
+   long getStartTime(String name)
+   {
+      Node node = nodes.get(name);
+
+      if (node == null)
+         return -1L;
+
+      return node.startTime;
+   }
+
+   /**
+    * Get the critical path of the deployment, which is the chain of beans
+    * with the longest combined create and start time
+    * @return The names of the beans on the critical path
+    */
+   List<String> getCriticalPath()
+   {
+      Map<String, Long> cost = new HashMap<String, Long>(nodes.size());
+      Map<String, String> next = new HashMap<String, String>(nodes.size());
+      Set<String> visiting = new HashSet<String>();
+
+      String start = null;
+      long max = -1L;
+
+      for (Node node : nodes.values())
+      {
+         if (!hasInternalDependencies(node))
+         {
+            long c = calculateCost(node, cost, next, visiting);
+            if (c > max)
+            {
+               max = c;
+               start = node.name;
+            }
+         }
+      }
+
+      List<String> result = new ArrayList<String>();
+      while (start != null && !result.contains(start))
+      {
+         result.add(start);
+         start = next.get(start);
+      }
+
+      return result;
+   }
+
+   /**
+    * Has the node any dependencies inside the deployment
+    * @param node The node
+    * @return True if the node has; otherwise false
+    */
+   private boolean hasInternalDependencies(Node node)
+   {
+      for (String dependency : node.dependencies)
+      {
+         if (nodes.containsKey(dependency))
+            return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Calculate the cost of the most expensive chain starting at a node
+    * @param node The node
+    * @param cost The calculated costs
+    * @param next The next node on the most expensive chain
+    * @param visiting The nodes currently being visited
+    * @return The cost
+    */
+   private long calculateCost(Node node, Map<String, Long> cost, Map<String, String> next, Set<String> visiting)
+   {
+      Long c = cost.get(node.name);
+      if (c != null)
+         return c.longValue();
+
+      if (!visiting.add(node.name))
+         return 0L;
+
+      long max = 0L;
+      for (String dependant : node.dependants)
+      {
+         long d = calculateCost(nodes.get(dependant), cost, next, visiting);
+         if (next.get(node.name) == null || d > max)
+         {
+            max = d;
+            next.put(node.name, dependant);
+         }
+      }
+
+      visiting.remove(node.name);
+
+      long result = max + Math.max(node.createTime, 0L) + Math.max(node.startTime, 0L);
+      cost.put(node.name, Long.valueOf(result));
+
+      return result;
+   }
+
+   /**
+    * Dump the graph
+    * @param sb The string builder
+    */
+   void dump(StringBuilder sb)
+   {
+      for (Node node : nodes.values())
+      {
+         sb.append("  ").append(node.name);
+         sb.append(" (Depth=").append(node.depth);
+         sb.append(", Create=").append(time(node.createTime));
+         sb.append(", Start=").append(time(node.startTime)).append(")\n");
+
+         if (node.dependencies.size() > 0)
+         {
+            sb.append("    DependsOn: ");
+            append(sb, node.dependencies);
+            sb.append("\n");
+         }
+
+         if (node.incallbacks.size() > 0)
+         {
+            sb.append("    Incallback: ");
+            append(sb, node.incallbacks);
+            sb.append("\n");
+         }
+      }
+
+      sb.append("  CriticalPath: ");
+
+      List<String> criticalPath = getCriticalPath();
+      if (criticalPath.size() > 0)
+      {
+         long total = 0L;
+         Iterator<String> it = criticalPath.iterator();
+         while (it.hasNext())
+         {
+            Node node = nodes.get(it.next());
+            total += Math.max(node.createTime, 0L) + Math.max(node.startTime, 0L);
+
+            sb.append(node.name);
+            if (it.hasNext())
+               sb.append(" -> ");
+         }
+         sb.append(" (").append(total).append("ms)");
+      }
+      else
+      {
+         sb.append("None");
+      }
+      sb.append("\n");
+   }
+
+   /**
+    * Format a time
+    * @param time The time in milliseconds
+    * @return The formatted value
+    */
+   static String time(long time)
+   {
+      if (time < 0)
+         return "N/A";
+
+      return time + "ms";
+   }
+
+   /**
+    * Append a set of names
+    * @param sb The string builder
+    * @param names The names
+    */
+   private void append(StringBuilder sb, Set<String> names)
+   {
+      Iterator<String> it = names.iterator();
+      while (it.hasNext())
+      {
+         sb.append(it.next());
+         if (it.hasNext())
+            sb.append(", ");
+      }
+   }
+
+   /**
+    * A node in the graph
+    */
+   static class Node
+   {
+      /** The name of the bean */
+      private String name;
+
+      /** The dependencies */
+      private Set<String> dependencies;
+
+      /** The dependants inside the deployment */
+      private Set<String> dependants;
+
+      /** The incallback methods */
+      private Set<String> incallbacks;
+
+      /** The depth */
+      private volatile int depth;
+
+      /** The create time */
+      private volatile long createTime;
+
+      /** The start time */
+      private volatile long startTime;
+
+      /**
+       * Constructor
+       * @param name The name of the bean
+       * @param dependencies The dependencies
+       */
+      Node(String name, Set<String> dependencies)
+      {
+         this.name = name;
+         this.dependencies = dependencies;
+         this.dependants = new LinkedHashSet<String>(1);
+         this.incallbacks = new LinkedHashSet<String>(1);
+         this.depth = 0;
+         this.createTime = -1L;
+         this.startTime = -1L;
+      }
+   }
+}
@@ -0,0 +1,94 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.github.fungal.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A dependency latch that hands a bean over to the bean scheduler
+ * once all of its dependencies have been resolved
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+class DependencyLatch
+{
+   /** The number of outstanding dependencies */
+   private AtomicInteger count;
+
+   /** The task */
+   private Runnable task;
+
+   /** The executor */
+   private Executor executor;
+
+   /**
+    * Constructor
+    * @param count The number of dependencies
+    * @param task The task that should be executed once all dependencies are resolved
+    * @param executor The executor
+    */
+   DependencyLatch(int count, Runnable task, Executor executor)
+   {
+      if (count <= 0)
+         throw new IllegalArgumentException("Count must be positive");
+
+      if (task == null)
+         throw new IllegalArgumentException("Task is null");
+
+      if (executor == null)
+         throw new IllegalArgumentException("Executor is null");
+
+      this.count = new AtomicInteger(count);
+      this.task = task;
+      this.executor = executor;
+   }
+
+   /**
+    * Count down; the task is handed to the executor when the count reaches zero
+    */
+   void countDown()
+   {
+      for (;;)
+      {
+         int current = count.get();
+
+         if (current <= 0)
+            return;
+
+         if (count.compareAndSet(current, current - 1))
+         {
+            if (current == 1)
+               executor.execute(task);
+
+            return;
+         }
+      }
+   }
+
+   /**
+    * Get the number of outstanding dependencies
+    * @return The value
+    */
+   long getCount()
+   {
+      return count.get();
+   }
+}
@@ -22,9 +22,8 @@ package com.github.fungal.impl;
 
 import com.github.fungal.spi.deployers.Deployer;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The active deployers
@@ -32,6 +31,7 @@ import java.util.List;
  */
 final class Deployers
 {
+   /** The deployers; deployers are added rarely, but read on every deployment */
    private List<Deployer> deployers;
 
    /**
@@ -39,7 +39,7 @@ final class Deployers
     */
    Deployers()
    {
-      this.deployers = Collections.synchronizedList(new ArrayList<Deployer>());
+      this.deployers = new CopyOnWriteArrayList<Deployer>();
    }
 
    /**
@@ -21,6 +21,7 @@
 package com.github.fungal.impl;
 
 import com.github.fungal.api.deployment.Bean;
+import com.github.fungal.deployment.BeanListener;
 import com.github.fungal.deployment.Unmarshaller;
 import com.github.fungal.spi.deployers.CloneableDeployer;
 import com.github.fungal.spi.deployers.Context;
@@ -94,14 +95,30 @@ public final class DeploymentDeployer implements CloneableDeployer
     */
    public Deployment deploy(URL url, Context context, ClassLoader parent) throws DeployException
    {
+      if (kernel.getKernelConfiguration().isStreamingDeployment())
+         return deployStreaming(url, parent);
+
       DeployException deployException = null;
       try
       {
-         Unmarshaller deploymentU = new Unmarshaller();
-         com.github.fungal.deployment.Deployment deployment = deploymentU.unmarshal(url);
+         com.github.fungal.deployment.Deployment deployment = kernel.getParsedDeployment(url);
+
+         if (deployment == null)
+         {
+            Unmarshaller deploymentU = new Unmarshaller(kernel.getDeploymentCache());
+            deployment = deploymentU.unmarshal(url);
+         }
 
          if (deployment != null && deployment.getBean().size() > 0)
          {
+            DependencyGraph graph = new DependencyGraph(deployment.getBean());
+
+            if (graph.getCycle() != null)
+            {
+               kernel.beansRegistered();
+               throw new DeployException("Cyclic dependency: " + graph.getCycleDescription());
+            }
+
             for (Bean bt : deployment.getBean())
             {
                kernel.setBeanStatus(bt.getName(), ServiceLifecycle.NOT_STARTED);
@@ -109,6 +126,8 @@ public final class DeploymentDeployer implements CloneableDeployer
 
             kernel.beansRegistered();
 
+            Injection injection = new Injection(kernel.getKernelConfiguration().isSystemPropertySnapshot());
+
             List<BeanDeployer> deployers = new ArrayList<BeanDeployer>(deployment.getBean().size());
             List<String> beans = Collections.synchronizedList(new ArrayList<String>(deployment.getBean().size()));
             Map<String, List<Method>> uninstall = 
@@ -126,13 +145,13 @@ public final class DeploymentDeployer implements CloneableDeployer
             {
                BeanDeployer deployer = new BeanDeployer(bt, beans, uninstall,
                                                         stops, destroys, ignoreStops, ignoreDestroys,
-                                                        kernel, beansLatch, parent, log);
+                                                        kernel, graph, injection, beansLatch, parent, log);
                deployers.add(deployer);
-
-               kernel.getExecutorService().submit(deployer);
             }
 
-            beansLatch.await();
+            kernel.schedule(deployers);
+
+            kernel.getBeanScheduler().await(beansLatch);
 
             Iterator<BeanDeployer> it = deployers.iterator();
             while (deployException == null && it.hasNext())
@@ -144,7 +163,7 @@ public final class DeploymentDeployer implements CloneableDeployer
 
             if (deployException == null)
                return new BeanDeploymentImpl(url, beans, uninstall,
-                                             stops, destroys, ignoreStops, ignoreDestroys, kernel);
+                                             stops, destroys, ignoreStops, ignoreDestroys, graph, kernel);
          }
       }
       catch (Throwable t)
@@ -159,6 +178,151 @@ public final class DeploymentDeployer implements CloneableDeployer
       return null;
    }
 
+   /**
+    * Deploy while the descriptor is being parsed; each bean is handed to the scheduler
+    * as soon as it has been read. Beans referring to beans that haven't been read yet
+    * are scheduled once the entire descriptor has been parsed
+    * @param url The URL
+    * @param parent The parent classloader
+    * @return The deployment; or null if no deployment was made
+    * @exception DeployException Thrown if an error occurs during deployment
+    */
+   private Deployment deployStreaming(URL url, final ClassLoader parent) throws DeployException
+   {
+      DeployException deployException = null;
+      try
+      {
+         final DependencyGraph graph = new DependencyGraph();
+         final Injection injection = new Injection(kernel.getKernelConfiguration().isSystemPropertySnapshot());
+
+         final List<BeanDeployer> deployers = new ArrayList<BeanDeployer>();
+         final List<BeanDeployer> deferred = new ArrayList<BeanDeployer>();
+         final List<CountDownLatch> latches = new ArrayList<CountDownLatch>();
+         final List<String> beans = Collections.synchronizedList(new ArrayList<String>());
+         final Map<String, List<Method>> uninstall = new ConcurrentHashMap<String, List<Method>>();
+         final Map<String, String> stops = Collections.synchronizedMap(new HashMap<String, String>());
+         final Map<String, String> destroys = Collections.synchronizedMap(new HashMap<String, String>());
+         final Set<String> ignoreStops = Collections.synchronizedSet(new HashSet<String>());
+         final Set<String> ignoreDestroys = Collections.synchronizedSet(new HashSet<String>());
+
+         BeanListener listener = new BeanListener()
+         {
+            public void beanRead(Bean bt) throws Exception
+            {
+               kernel.setBeanStatus(bt.getName(), ServiceLifecycle.NOT_STARTED);
+               graph.add(bt);
+
+               CountDownLatch latch = new CountDownLatch(1);
+               BeanDeployer deployer = new BeanDeployer(bt, beans, uninstall,
+                                                        stops, destroys, ignoreStops, ignoreDestroys,
+                                                        kernel, graph, injection, latch, parent, log);
+               deployers.add(deployer);
+               latches.add(latch);
+
+               boolean resolved = true;
+               for (String dependency : DependencyGraph.getDependencies(bt))
+               {
+                  if (kernel.getBeanStatus(dependency) == null)
+                     resolved = false;
+               }
+
+               if (resolved)
+               {
+                  deployer.schedule(kernel.getBeanScheduler());
+               }
+               else
+               {
+                  deferred.add(deployer);
+               }
+            }
+         };
+
+         Throwable parseError = null;
+         try
+         {
+            Unmarshaller deploymentU = new Unmarshaller(kernel.getDeploymentCache());
+            deploymentU.unmarshal(url, listener);
+         }
+         catch (Throwable t)
+         {
+            parseError = t;
+         }
+
+         if (deployers.size() == 0)
+         {
+            if (parseError != null)
+               throw parseError;
+
+            return null;
+         }
+
+         kernel.beansRegistered();
+
+         if (parseError == null)
+         {
+            graph.calculateDepths();
+
+            if (graph.getCycle() != null)
+               parseError = new DeployException("Cyclic dependency: " + graph.getCycleDescription());
+         }
+
+         if (parseError != null)
+         {
+            // The dependencies of the deferred beans may never have been read,
+            // or may be part of a cycle
+            for (BeanDeployer deployer : deferred)
+            {
+               deployer.abort(parseError);
+            }
+         }
+         else
+         {
+            kernel.schedule(deferred);
+         }
+
+         for (CountDownLatch latch : latches)
+         {
+            kernel.getBeanScheduler().await(latch);
+         }
+
+         BeanDeploymentImpl result = new BeanDeploymentImpl(url, beans, uninstall,
+                                                            stops, destroys, ignoreStops, ignoreDestroys,
+                                                            graph, kernel);
+
+         if (parseError != null)
+         {
+            try
+            {
+               result.destroy();
+            }
+            catch (Throwable t)
+            {
+               log.log(Level.WARNING, t.getMessage(), t);
+            }
+
+            throw parseError;
+         }
+
+         Iterator<BeanDeployer> it = deployers.iterator();
+         while (deployException == null && it.hasNext())
+         {
+            BeanDeployer deployer = it.next();
+            if (deployer.getDeployException() != null)
+               deployException = deployer.getDeployException();
+         }
+
+         if (deployException == null)
+            return result;
+      }
+      catch (Throwable t)
+      {
+         log.log(Level.SEVERE, t.getMessage(), t);
+         throw new DeployException("Deployment " + url + " failed", t);
+      }
+
+      throw new DeployException("Deployment " + url + " failed", deployException);
+   }
+
    /**
     * Clone
     * @return The copy of the object
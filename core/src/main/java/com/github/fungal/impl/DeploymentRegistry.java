@@ -0,0 +1,211 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.github.fungal.impl;
+
+import com.github.fungal.spi.deployers.Deployment;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The registry of the active deployments.
+ *
+ * The deployments are indexed by the external form of their URL, and kept in
+ * registration order. Lookups and snapshots don't lock; registrations and
+ * removals are serialized.
+ *
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+final class DeploymentRegistry
+{
+   /** The deployments in registration order */
+   private ConcurrentSkipListMap<Long, Deployment> ordered;
+
+   /** The registrations for each URL; the lists are replaced, never modified */
+   private ConcurrentMap<String, List<Registration>> index;
+
+   /** The next sequence number */
+   private long sequence;
+
+   /**
+    * Constructor
+    */
+   DeploymentRegistry()
+   {
+      this.ordered = new ConcurrentSkipListMap<Long, Deployment>();
+      this.index = new ConcurrentHashMap<String, List<Registration>>();
+      this.sequence = 0L;
+   }
+
+   /**
+    * Add a deployment
+    * @param deployment The deployment
+    */
+   synchronized void add(Deployment deployment)
+   {
+      Registration registration = new Registration(sequence++, deployment);
+      String key = getKey(deployment.getURL());
+
+      List<Registration> current = index.get(key);
+      List<Registration> l = new ArrayList<Registration>(current != null ? current.size() + 1 : 1);
+
+      if (current != null)
+         l.addAll(current);
+
+      l.add(registration);
+
+      ordered.put(Long.valueOf(registration.sequence), deployment);
+      index.put(key, Collections.unmodifiableList(l));
+   }
+
+   /**
+    * Remove a deployment
+    * @param deployment The deployment
+    * @return True if the deployment was registered; otherwise false
+    */
+   synchronized boolean remove(Deployment deployment)
+   {
+      String key = getKey(deployment.getURL());
+
+      List<Registration> current = index.get(key);
+      if (current == null)
+         return false;
+
+      List<Registration> l = new ArrayList<Registration>(current.size());
+      Registration removed = null;
+
+      for (Registration registration : current)
+      {
+         if (removed == null && registration.deployment == deployment)
+         {
+            removed = registration;
+         }
+         else
+         {
+            l.add(registration);
+         }
+      }
+
+      if (removed == null)
+         return false;
+
+      ordered.remove(Long.valueOf(removed.sequence));
+
+      if (l.size() > 0)
+      {
+         index.put(key, Collections.unmodifiableList(l));
+      }
+      else
+      {
+         index.remove(key);
+      }
+
+      return true;
+   }
+
+   /**
+    * Remove all deployments
+    */
+   synchronized void clear()
+   {
+      ordered.clear();
+      index.clear();
+   }
+
+   /**
+    * Get the number of deployments
+    * @return The value
+    */
+   int size()
+   {
+      return ordered.size();
+   }
+
+   /**
+    * Get a snapshot of the deployments in registration order
+    * @return The deployments
+    */
+   List<Deployment> getDeployments()
+   {
+      return new ArrayList<Deployment>(ordered.values());
+   }
+
+   /**
+    * Get a snapshot of the deployments for a URL in registration order
+    * @param url The URL; <code>null</code> for the deployments without a URL
+    * @return The deployments; <code>null</code> if there are none
+    */
+   List<Deployment> getDeployments(URL url)
+   {
+      List<Registration> current = index.get(getKey(url));
+
+      if (current == null)
+         return null;
+
+      List<Deployment> result = new ArrayList<Deployment>(current.size());
+      for (Registration registration : current)
+      {
+         result.add(registration.deployment);
+      }
+
+      return result;
+   }
+
+   /**
+    * Get the key for a URL
+    * @param url The URL
+    * @return The value
+    */
+   private static String getKey(URL url)
+   {
+      if (url == null)
+         return "";
+
+      return url.toExternalForm();
+   }
+
+   /**
+    * A registration of a deployment
+    */
+   static class Registration
+   {
+      /** The sequence number */
+      private long sequence;
+
+      /** The deployment */
+      private Deployment deployment;
+
+      /**
+       * Constructor
+       * @param sequence The sequence number
+       * @param deployment The deployment
+       */
+      Registration(long sequence, Deployment deployment)
+      {
+         this.sequence = sequence;
+         this.deployment = deployment;
+      }
+   }
+}
@@ -32,6 +32,9 @@ public class FungalThreadFactory implements ThreadFactory
    /** The thread group */
    private ThreadGroup tg;
 
+   /** Thread name prefix */
+   private String prefix;
+
    /** Thread number */
    private AtomicInteger threadNumber;
 
@@ -40,8 +43,19 @@ public class FungalThreadFactory implements ThreadFactory
     * @param tg The thread group
     */
    public FungalThreadFactory(ThreadGroup tg)
+   {
+      this(tg, "fungal");
+   }
+
+   /**
+    * Constructor
+    * @param tg The thread group
+    * @param prefix The thread name prefix
+    */
+   public FungalThreadFactory(ThreadGroup tg, String prefix)
    {
       this.tg = tg;
+      this.prefix = prefix;
       this.threadNumber = new AtomicInteger(1);
    }
 
@@ -52,6 +66,6 @@ public class FungalThreadFactory implements ThreadFactory
     */
    public Thread newThread(Runnable r)
    {
-      return new Thread(tg, r, "fungal-" + threadNumber.getAndIncrement());
+      return new Thread(tg, r, prefix + "-" + threadNumber.getAndIncrement());
    }
 }
@@ -20,13 +20,21 @@
 
 package com.github.fungal.impl;
 
+import com.github.fungal.api.deployment.BeanDeployment;
+import com.github.fungal.spi.deployers.Deployment;
+
 import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -44,12 +52,22 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
    private boolean trace = log.isLoggable(Level.FINEST);
 
    private int interval;
+   private volatile long quietPeriod;
    private File directory;
    private KernelImpl kernel;
 
    private AtomicBoolean running;
-   private List<URL> deployments;
-   private Map<String, Long> modifiedTimestamp;
+   private Map<String, URL> deployments;
+   private Map<String, Long> signatures;
+
+   /** The signatures of new or changed deployments waiting for the quiet period */
+   private Map<String, Long> pendingSignatures;
+
+   /** The time at which the pending signatures were observed */
+   private Map<String, Long> pendingSince;
+
+   /** The lock used to wake up the scanner */
+   private Object lock;
 
    /**
     * Constructor
@@ -58,10 +76,26 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
     * @param kernel The kernel
     */
    public HotDeployer(int interval, File directory, KernelImpl kernel)
+   {
+      this(interval, 0L, directory, kernel);
+   }
+
+   /**
+    * Constructor
+    * @param interval The scan interval in seconds
+    * @param quietPeriod The period in milliseconds that a deployment must be unchanged
+    *                    before it is deployed
+    * @param directory The directory that should be scanned
+    * @param kernel The kernel
+    */
+   public HotDeployer(int interval, long quietPeriod, File directory, KernelImpl kernel)
    {
       if (interval <= 0)
          throw new IllegalArgumentException("Internal is invalid");
 
+      if (quietPeriod < 0)
+         throw new IllegalArgumentException("Quiet period is invalid");
+
       if (directory == null)
          throw new IllegalArgumentException("Directory is null");
 
@@ -69,11 +103,15 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
          throw new IllegalArgumentException("Kernel is null");
 
       this.interval = interval;
+      this.quietPeriod = quietPeriod;
       this.directory = directory;
       this.kernel = kernel;
       this.running = new AtomicBoolean(false);
-      this.deployments = new ArrayList<URL>();
-      this.modifiedTimestamp = new HashMap<String, Long>();
+      this.deployments = new LinkedHashMap<String, URL>();
+      this.signatures = new HashMap<String, Long>();
+      this.pendingSignatures = new HashMap<String, Long>();
+      this.pendingSince = new HashMap<String, Long>();
+      this.lock = new Object();
    }
 
    /**
@@ -90,12 +128,13 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
          if (!deployment.toExternalForm().startsWith(directory.toURI().toURL().toExternalForm()))
             return;
 
+         File f = new File(deployment.toURI());
+         Long signature = Long.valueOf(getSignature(f));
+
          synchronized (deployments)
          {
-            deployments.add(deployment);
-
-            File f = new File(deployment.toURI());
-            modifiedTimestamp.put(deployment.toString(), Long.valueOf(f.lastModified()));
+            deployments.put(deployment.toString(), deployment);
+            signatures.put(deployment.toString(), signature);
          }
       }
       catch (Throwable t)
@@ -120,8 +159,8 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
 
          synchronized (deployments)
          {
-            deployments.remove(deployment);
-            modifiedTimestamp.remove(deployment.toString());
+            deployments.remove(deployment.toString());
+            signatures.remove(deployment.toString());
          }
       }
       catch (Throwable t)
@@ -155,6 +194,29 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
    public void setInterval(int value)
    {
       this.interval = value;
+
+      synchronized (lock)
+      {
+         lock.notifyAll();
+      }
+   }
+
+   /**
+    * Get the quiet period in milliseconds
+    * @return The value
+    */
+   public long getQuietPeriod()
+   {
+      return quietPeriod;
+   }
+
+   /**
+    * Set the quiet period
+    * @param value The value in milliseconds
+    */
+   public void setQuietPeriod(long value)
+   {
+      this.quietPeriod = value;
    }
 
    /**
@@ -172,6 +234,11 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
    public void stop()
    {
       running.set(false);
+
+      synchronized (lock)
+      {
+         lock.notifyAll();
+      }
    }
 
    /**
@@ -184,48 +251,70 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
          long start = System.currentTimeMillis();
          try
          {
-            List<URL> removeDeployments = null;
+            Map<String, URL> removeDeployments = null;
+            Map<String, Long> currentSignatures = null;
             synchronized (deployments)
             {
-               removeDeployments = new ArrayList<URL>(deployments);
+               removeDeployments = new LinkedHashMap<String, URL>(deployments);
+               currentSignatures = new HashMap<String, Long>(signatures);
             }
             List<URL> changedDeployments = null;
             List<URL> newDeployments = null;
+            Set<String> seen = new HashSet<String>();
             boolean postDeploy = false;
 
             File[] files = directory.listFiles();
+            if (files == null)
+               files = new File[0];
+
             for (File f : files)
             {
                URL url = f.toURI().toURL();
+               String key = url.toString();
+               long signature = getSignature(f);
+
+               seen.add(key);
 
-               if (removeDeployments.contains(url))
+               if (removeDeployments.remove(key) != null)
                {
-                  long modified = modifiedTimestamp.get(url.toString()).longValue();
+                  Long current = currentSignatures.get(key);
 
-                  if (f.lastModified() != modified)
+                  if (current == null || current.longValue() != signature)
                   {
-                     if (changedDeployments == null)
-                        changedDeployments = new ArrayList<URL>(1);
-
-                     changedDeployments.add(url);
-                     postDeploy = true;
+                     if (isQuiet(key, signature, start))
+                     {
+                        if (changedDeployments == null)
+                           changedDeployments = new ArrayList<URL>(1);
+
+                        changedDeployments.add(url);
+                        postDeploy = true;
+                     }
+                  }
+                  else
+                  {
+                     pendingSignatures.remove(key);
+                     pendingSince.remove(key);
                   }
-
-                  removeDeployments.remove(url);
                }
                else
                {
-                  if (newDeployments == null)
-                     newDeployments = new ArrayList<URL>(1);
+                  if (isQuiet(key, signature, start))
+                  {
+                     if (newDeployments == null)
+                        newDeployments = new ArrayList<URL>(1);
 
-                  newDeployments.add(url);
-                  postDeploy = true;
+                     newDeployments.add(url);
+                     postDeploy = true;
+                  }
                }
             }
 
+            pendingSignatures.keySet().retainAll(seen);
+            pendingSince.keySet().retainAll(seen);
+
             if (removeDeployments.size() > 0)
             {
-               for (URL url : removeDeployments)
+               for (URL url : removeDeployments.values())
                {
                   try
                   {
@@ -243,21 +332,7 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
             {
                Collections.sort(changedDeployments, kernel.getKernelConfiguration().getDeploymentOrder());
 
-               for (URL url : changedDeployments)
-               {
-                  try
-                  {
-                     unregister(url);
-                     kernel.getMainDeployer().undeploy(url);
-
-                     register(url);
-                     kernel.getMainDeployer().deploy(url);
-                  }
-                  catch (Throwable deploy)
-                  {
-                     log.log(Level.SEVERE, deploy.getMessage(), deploy);
-                  }
-               }
+               redeploy(getIndependentGroups(changedDeployments));
             }
 
             if (newDeployments != null)
@@ -284,10 +359,18 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
             long took = System.currentTimeMillis() - start;
             long sleep = interval * 1000L - took;
 
+            // Pending deployments are checked again once their quiet period has passed
+            if (pendingSignatures.size() > 0 && quietPeriod < sleep)
+               sleep = quietPeriod;
+
             if (sleep <= 10)
                sleep = 10;
 
-            Thread.sleep(sleep);
+            synchronized (lock)
+            {
+               if (running.get())
+                  lock.wait(sleep);
+            }
          }
          catch (Throwable t)
          {
@@ -295,4 +378,296 @@ public final class HotDeployer implements HotDeployerMBean, Runnable
          }
       }
    }
+
+   /**
+    * Split changed deployments into groups that don't share any bean dependencies.
+    * The deployments inside a group keep their order. All deployments end up in a
+    * single group if one of them isn't a bean deployment
+    * @param urls The URLs of the deployments in deployment order
+    * @return The groups
+    */
+   private List<List<URL>> getIndependentGroups(List<URL> urls)
+   {
+      List<List<URL>> result = new ArrayList<List<URL>>(1);
+
+      int[] roots = new int[urls.size()];
+      Map<String, Integer> owners = new HashMap<String, Integer>();
+      List<Set<String>> beans = new ArrayList<Set<String>>(urls.size());
+
+      for (int i = 0; i < urls.size(); i++)
+      {
+         Set<String> names = getBeans(urls.get(i));
+         if (names == null)
+         {
+            result.add(urls);
+            return result;
+         }
+
+         roots[i] = i;
+         beans.add(names);
+
+         for (String name : names)
+         {
+            owners.put(name, Integer.valueOf(i));
+         }
+      }
+
+      for (int i = 0; i < urls.size(); i++)
+      {
+         for (String name : beans.get(i))
+         {
+            Set<String> dependants = kernel.getBeanDependants(name);
+            if (dependants != null)
+            {
+               for (String dependant : dependants)
+               {
+                  Integer owner = owners.get(dependant);
+                  if (owner != null)
+                  {
+                     int a = getRoot(roots, i);
+                     int b = getRoot(roots, owner.intValue());
+                     roots[Math.max(a, b)] = Math.min(a, b);
+                  }
+               }
+            }
+         }
+      }
+
+      Map<Integer, List<URL>> groups = new LinkedHashMap<Integer, List<URL>>();
+      for (int i = 0; i < urls.size(); i++)
+      {
+         Integer root = Integer.valueOf(getRoot(roots, i));
+         List<URL> group = groups.get(root);
+         if (group == null)
+         {
+            group = new ArrayList<URL>(1);
+            groups.put(root, group);
+         }
+         group.add(urls.get(i));
+      }
+
+      result.addAll(groups.values());
+      return result;
+   }
+
+   /**
+    * Get the root of a group
+    * @param roots The roots
+    * @param index The index
+    * @return The root
+    */
+   private static int getRoot(int[] roots, int index)
+   {
+      while (roots[index] != index)
+      {
+         roots[index] = roots[roots[index]];
+         index = roots[index];
+      }
+
+      return index;
+   }
+
+   /**
+    * Get the names of the beans in a deployment
+    * @param url The URL of the deployment
+    * @return The names; <code>null</code> if the deployment isn't a bean deployment
+    */
+   private Set<String> getBeans(URL url)
+   {
+      List<Deployment> l = kernel.getDeployments(url);
+      if (l == null)
+         return null;
+
+      Set<String> result = null;
+      for (Deployment deployment : l)
+      {
+         if (deployment instanceof BeanDeployment)
+         {
+            if (result == null)
+               result = new HashSet<String>();
+
+            List<String> names = ((BeanDeployment)deployment).getBeans();
+            if (names != null)
+               result.addAll(names);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Redeploy groups of changed deployments; the groups are redeployed in parallel,
+    * and the deployments inside a group one after another
+    * @param groups The groups
+    */
+   private void redeploy(final List<List<URL>> groups)
+   {
+      if (groups.size() == 1)
+      {
+         redeployGroup(groups.get(0));
+         return;
+      }
+
+      final CountDownLatch latch = new CountDownLatch(groups.size());
+      final AtomicBoolean[] claimed = new AtomicBoolean[groups.size()];
+
+      for (int i = 0; i < groups.size(); i++)
+      {
+         claimed[i] = new AtomicBoolean(false);
+      }
+
+      for (int i = 1; i < groups.size(); i++)
+      {
+         final int index = i;
+         try
+         {
+            kernel.getExecutorService().execute(new Runnable()
+            {
+               public void run()
+               {
+                  if (claimed[index].compareAndSet(false, true))
+                  {
+                     redeployGroup(groups.get(index));
+                     latch.countDown();
+                  }
+               }
+            });
+         }
+         catch (Throwable t)
+         {
+            // The group is redeployed by this thread
+         }
+      }
+
+      // Run the groups that haven't been picked up by the executor
+      for (int i = 0; i < groups.size(); i++)
+      {
+         if (claimed[i].compareAndSet(false, true))
+         {
+            redeployGroup(groups.get(i));
+            latch.countDown();
+         }
+      }
+
+      boolean interrupted = false;
+      while (latch.getCount() > 0)
+      {
+         try
+         {
+            latch.await();
+         }
+         catch (InterruptedException ie)
+         {
+            interrupted = true;
+         }
+      }
+
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Redeploy a group of changed deployments in order
+    * @param urls The URLs of the deployments
+    */
+   private void redeployGroup(List<URL> urls)
+   {
+      for (URL url : urls)
+      {
+         try
+         {
+            unregister(url);
+            kernel.getMainDeployer().undeploy(url);
+
+            register(url);
+            kernel.getMainDeployer().deploy(url);
+         }
+         catch (Throwable deploy)
+         {
+            log.log(Level.SEVERE, deploy.getMessage(), deploy);
+         }
+      }
+   }
+
+   /**
+    * Has a new or changed deployment been unchanged for the quiet period
+    * @param key The key of the deployment
+    * @param signature The signature of the deployment
+    * @param now The current time
+    * @return True if the deployment should be deployed; otherwise false
+    */
+   private boolean isQuiet(String key, long signature, long now)
+   {
+      Long pending = pendingSignatures.get(key);
+
+      if (pending == null || pending.longValue() != signature)
+      {
+         if (quietPeriod <= 0)
+            return true;
+
+         if (trace)
+            log.finest("Waiting for quiet period: " + key);
+
+         pendingSignatures.put(key, Long.valueOf(signature));
+         pendingSince.put(key, Long.valueOf(now));
+
+         return false;
+      }
+
+      if (now - pendingSince.get(key).longValue() < quietPeriod)
+         return false;
+
+      pendingSignatures.remove(key);
+      pendingSince.remove(key);
+
+      return true;
+   }
+
+   /**
+    * Get the signature of a deployment. For an exploded deployment the signature
+    * also covers the timestamps and sizes of its descriptors; the .xml files in
+    * the root and in META-INF
+    * @param f The file
+    * @return The value
+    */
+   static long getSignature(File f)
+   {
+      long signature = 31L * f.lastModified() + f.length();
+
+      if (f.isDirectory())
+      {
+         signature = getDescriptorSignature(f, signature);
+         signature = getDescriptorSignature(new File(f, "META-INF"), signature);
+      }
+
+      return signature;
+   }
+
+   /**
+    * Add the signatures of the .xml files in a directory to a signature
+    * @param directory The directory
+    * @param signature The signature
+    * @return The value
+    */
+   private static long getDescriptorSignature(File directory, long signature)
+   {
+      String[] names = directory.list();
+      if (names == null)
+         return signature;
+
+      Arrays.sort(names);
+
+      for (String name : names)
+      {
+         if (name.endsWith(".xml"))
+         {
+            File descriptor = new File(directory, name);
+            signature = 31L * signature + name.hashCode();
+            signature = 31L * signature + descriptor.lastModified();
+            signature = 31L * signature + descriptor.length();
+         }
+      }
+
+      return signature;
+   }
 }
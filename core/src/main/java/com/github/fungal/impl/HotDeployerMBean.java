@@ -44,6 +44,18 @@ public interface HotDeployerMBean
     */
    public void setInterval(int value);
 
+   /**
+    * Get the quiet period in milliseconds
+    * @return The value
+    */
+   public long getQuietPeriod();
+
+   /**
+    * Set the quiet period
+    * @param value The value in milliseconds
+    */
+   public void setQuietPeriod(long value);
+
    /**
     * Start
     */
@@ -38,6 +38,15 @@ final class Injection extends com.github.fungal.api.util.Injection
       super();
    }
 
+   /**
+    * Constructor
+    * @param snapshot Resolve system properties against a snapshot taken now
+    */
+   Injection(boolean snapshot)
+   {
+      super(snapshot);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -32,6 +32,7 @@ import com.github.fungal.api.events.EventListener;
 import com.github.fungal.api.remote.Command;
 import com.github.fungal.api.util.JMX;
 import com.github.fungal.bootstrap.Bootstrap;
+import com.github.fungal.deployment.Unmarshaller;
 import com.github.fungal.impl.netboot.Netboot;
 import com.github.fungal.impl.remote.CommunicationServer;
 import com.github.fungal.impl.remote.CommunicatorImpl;
@@ -53,23 +54,31 @@ import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -101,20 +110,25 @@ public class KernelImpl implements Kernel, KernelImplMBean
    private boolean trace = false;
 
    /** Deployments */
-   private List<Deployment> deployments = Collections.synchronizedList(new ArrayList<Deployment>(1));
+   private DeploymentRegistry deployments = new DeploymentRegistry();
 
    /** Beans */
    private ConcurrentMap<String, Object> beans = new ConcurrentHashMap<String, Object>(1);
 
+   /**
+    * Bean metadata. The map is never read; it pins the weakly cached BeanMetadata
+    * of the installed beans, such that the cache entries aren't collected while in use
+    */
+   private ConcurrentMap<String, BeanMetadata> beanMetadata = new ConcurrentHashMap<String, BeanMetadata>(1);
+
    /** Bean status */
    private ConcurrentMap<String, ServiceLifecycle> beanStatus = new ConcurrentHashMap<String, ServiceLifecycle>(1);
 
    /** Bean dependants */
    private ConcurrentMap<String, Set<String>> beanDependants = new ConcurrentHashMap<String, Set<String>>(1);
 
-   /** Bean latches */
-   private Map<String, List<CountDownLatch>> beanLatches =
-      Collections.synchronizedMap(new HashMap<String, List<CountDownLatch>>(1));
+   /** Bean completion handles */
+   private ConcurrentMap<String, BeanCompletion> beanCompletions = new ConcurrentHashMap<String, BeanCompletion>(1);
 
    /** Bean deployments */
    private AtomicInteger beanDeployments;
@@ -122,6 +136,9 @@ public class KernelImpl implements Kernel, KernelImplMBean
    /** Kernel thread pool */
    private ThreadPoolExecutor threadPoolExecutor;
 
+   /** Bean scheduler */
+   private BeanScheduler beanScheduler;
+
    /** The old class loader */
    private ClassLoader oldClassLoader;
 
@@ -140,6 +157,13 @@ public class KernelImpl implements Kernel, KernelImplMBean
    /** Temporary environment */
    private boolean temporaryEnvironment;
 
+   /** Deployment cache directory */
+   private File deploymentCache;
+
+   /** Deployment descriptors being parsed ahead of their deployment */
+   private ConcurrentMap<String, FutureTask<com.github.fungal.deployment.Deployment>> parsedDeployments =
+      new ConcurrentHashMap<String, FutureTask<com.github.fungal.deployment.Deployment>>();
+
    /** Incallbacks */
    private ConcurrentMap<Class<?>, List<Callback>> incallbacks = new ConcurrentHashMap<Class<?>, List<Callback>>(1);
 
@@ -147,7 +171,16 @@ public class KernelImpl implements Kernel, KernelImplMBean
    private ConcurrentMap<Class<?>, List<Callback>> uncallbacks = new ConcurrentHashMap<Class<?>, List<Callback>>(1);
 
    /** Callback beans */
-   private ConcurrentMap<Object, List<Callback>> callbackBeans = new ConcurrentHashMap<Object, List<Callback>>(1);
+   private ConcurrentMap<Object, Set<Callback>> callbackBeans = new ConcurrentHashMap<Object, Set<Callback>>(1);
+
+   /** The beans assignable to each callback type */
+   private ConcurrentMap<Class<?>, Set<Object>> callbackTypes = new ConcurrentHashMap<Class<?>, Set<Object>>(1);
+
+   /** The names of the beans added since the last incallback */
+   private Queue<String> newCallbackBeans = new ConcurrentLinkedQueue<String>();
+
+   /** The incallbacks registered since the last incallback */
+   private Queue<Callback> newIncallbacks = new ConcurrentLinkedQueue<Callback>();
 
    /** DeployerPhases beans */
    private Set<String> deployerPhasesBeans = Collections.synchronizedSet(new HashSet<String>(1));
@@ -184,12 +217,14 @@ public class KernelImpl implements Kernel, KernelImplMBean
       this.trace = false;
       this.deployments.clear();
       this.beans.clear();
+      this.beanMetadata.clear();
       this.beanStatus.clear();
       this.beanDependants.clear();
-      this.beanLatches.clear();
+      this.beanCompletions.clear();
       this.beanDeployments = new AtomicInteger(0);
 
       setExecutorService(null);
+      this.beanScheduler = null;
 
       this.oldClassLoader = null;
       this.kernelClassLoader = null;
@@ -197,9 +232,13 @@ public class KernelImpl implements Kernel, KernelImplMBean
       this.mbeanServer = null;
       this.remote = null;
       this.temporaryEnvironment = false;
+      this.deploymentCache = null;
       this.incallbacks.clear();
       this.uncallbacks.clear();
       this.callbackBeans.clear();
+      this.callbackTypes.clear();
+      this.newCallbackBeans.clear();
+      this.newIncallbacks.clear();
       this.deployerPhasesBeans.clear();
       this.newDeployerPhasesBeans.clear();
       this.hotDeployer = null;
@@ -240,18 +279,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    public Collection<Deployment> getDeployments()
    {
-      Collection<Deployment> result = null;
-
-      if (deployments != null)
-      {
-         result = new ArrayList<Deployment>(deployments.size());
-         result.addAll(deployments);
-      }
-
-      if (result == null)
-         return null;
-
-      return Collections.unmodifiableCollection(result);
+      return Collections.unmodifiableCollection(deployments.getDeployments());
    }
 
    /**
@@ -270,37 +298,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    List<Deployment> getDeployments(URL url, boolean readonly)
    {
-      List<Deployment> result = null;
-
-      if (deployments != null)
-      {
-         if (url == null)
-         {
-            for (Deployment deployment : deployments)
-            {
-               if (deployment.getURL() == null)
-               {
-                  if (result == null)
-                     result = new ArrayList<Deployment>(1);
-
-                  result.add(deployment);
-               }
-            }
-         }
-         else
-         {
-            for (Deployment deployment : deployments)
-            {
-               if (deployment.getURL() != null && deployment.getURL().toString().equals(url.toString()))
-               {
-                  if (result == null)
-                     result = new ArrayList<Deployment>(1);
-
-                  result.add(deployment);
-               }
-            }
-         }
-      }
+      List<Deployment> result = deployments.getDeployments(url);
 
       if (result == null)
          return null;
@@ -344,6 +342,8 @@ public class KernelImpl implements Kernel, KernelImplMBean
 
       setExecutorService(tpe);
 
+      beanScheduler = new BeanScheduler(tg, Runtime.getRuntime().availableProcessors());
+
       File root = null;
 
       if (kernelConfiguration.getHome() != null)
@@ -424,7 +424,15 @@ public class KernelImpl implements Kernel, KernelImplMBean
 
       URL[] urls = mergeUrls(libUrls, confUrls);
 
-      kernelClassLoader = ClassLoaderFactory.create(kernelConfiguration.getClassLoader(), urls, oldClassLoader);
+      File classLoaderIndex = null;
+      if (root != null && root.exists() && !temporaryEnvironment)
+      {
+         classLoaderIndex = new File(root, "classloader.idx");
+         deploymentCache = new File(root, "cache");
+      }
+
+      kernelClassLoader = ClassLoaderFactory.create(kernelConfiguration.getClassLoader(), urls, oldClassLoader,
+                                                    classLoaderIndex, getExecutorService());
       SecurityActions.setThreadContextClassLoader(kernelClassLoader);
 
       initKernelLogging();
@@ -441,7 +449,8 @@ public class KernelImpl implements Kernel, KernelImplMBean
 
          urls = mergeUrls(libUrls, confUrls);
 
-         kernelClassLoader = ClassLoaderFactory.create(kernelConfiguration.getClassLoader(), urls, kernelClassLoader);
+         kernelClassLoader = ClassLoaderFactory.create(kernelConfiguration.getClassLoader(), urls, kernelClassLoader,
+                                                       classLoaderIndex, getExecutorService());
          SecurityActions.setThreadContextClassLoader(kernelClassLoader);
       }
 
@@ -499,6 +508,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
           kernelConfiguration.isHotDeployment())
       {
          hotDeployer = new HotDeployer(kernelConfiguration.getHotDeploymentInterval(),
+                                       kernelConfiguration.getHotDeploymentQuietPeriod(),
                                        deployDirectory,
                                        this);
 
@@ -762,6 +772,15 @@ public class KernelImpl implements Kernel, KernelImplMBean
             sm.put(index, l);
          }
 
+         List<URL> ordered = new ArrayList<URL>(urls.length);
+         for (List<URL> l : sm.values())
+         {
+            ordered.addAll(l);
+         }
+
+         if (!kernelConfiguration.isStreamingDeployment())
+            parse(ordered);
+
          for (List<URL> l : sm.values())
          {
             try
@@ -807,6 +826,102 @@ public class KernelImpl implements Kernel, KernelImplMBean
                log.log(Level.SEVERE, t.getMessage(), t);
             }
          }
+
+         for (URL url : urls)
+         {
+            parsedDeployments.remove(url.toString());
+         }
+      }
+   }
+
+   /**
+    * Parse the deployment descriptors among the URLs concurrently on the executor,
+    * ahead of their deployment; the descriptors are parsed in the order given
+    * @param urls The URLs
+    */
+   private void parse(List<URL> urls)
+   {
+      final List<FutureTask<com.github.fungal.deployment.Deployment>> tasks =
+         new ArrayList<FutureTask<com.github.fungal.deployment.Deployment>>(urls.size());
+
+      for (final URL url : urls)
+      {
+         if (url.toString().endsWith(".xml"))
+         {
+            Callable<com.github.fungal.deployment.Deployment> callable =
+               new Callable<com.github.fungal.deployment.Deployment>()
+            {
+               public com.github.fungal.deployment.Deployment call() throws Exception
+               {
+                  Unmarshaller deploymentU = new Unmarshaller(deploymentCache);
+                  return deploymentU.unmarshal(url);
+               }
+            };
+
+            FutureTask<com.github.fungal.deployment.Deployment> task =
+               new FutureTask<com.github.fungal.deployment.Deployment>(callable);
+
+            parsedDeployments.put(url.toString(), task);
+            tasks.add(task);
+         }
+      }
+
+      if (tasks.size() <= 1)
+         return;
+
+      final AtomicInteger next = new AtomicInteger(0);
+      int workers = Math.min(Runtime.getRuntime().availableProcessors(), tasks.size());
+
+      for (int i = 0; i < workers; i++)
+      {
+         try
+         {
+            getExecutorService().execute(new Runnable()
+            {
+               public void run()
+               {
+                  int index = next.getAndIncrement();
+                  while (index < tasks.size())
+                  {
+                     tasks.get(index).run();
+                     index = next.getAndIncrement();
+                  }
+               }
+            });
+         }
+         catch (Throwable t)
+         {
+            // The descriptors are parsed when deployed
+         }
+      }
+   }
+
+   /**
+    * Get a deployment descriptor parsed ahead of its deployment; the descriptor
+    * is parsed by the calling thread if the parsing hasn't started yet
+    * @param url The URL
+    * @return The deployment; <code>null</code> if the descriptor wasn't parsed ahead
+    * @exception Exception Thrown if the descriptor couldn't be parsed
+    */
+   com.github.fungal.deployment.Deployment getParsedDeployment(URL url) throws Exception
+   {
+      FutureTask<com.github.fungal.deployment.Deployment> task = parsedDeployments.remove(url.toString());
+
+      if (task == null)
+         return null;
+
+      task.run();
+
+      try
+      {
+         return task.get();
+      }
+      catch (ExecutionException ee)
+      {
+         if (ee.getCause() instanceof Exception)
+            throw (Exception)ee.getCause();
+
+         throw ee;
       }
    }
 
@@ -857,22 +972,51 @@ public class KernelImpl implements Kernel, KernelImplMBean
       // Shutdown all deployments
       if (deployments.size() > 0)
       {
-         List<Deployment> shutdownDeployments = new LinkedList<Deployment>(deployments);
+         List<Deployment> shutdownDeployments = deployments.getDeployments();
+
          Collections.reverse(shutdownDeployments);
 
-         for (Deployment deployment : shutdownDeployments)
-         {
-            if (hotDeployer != null)
-               hotDeployer.unregister(deployment.getURL());
+         BeanShutdown beanShutdown = null;
+         if (kernelConfiguration.isParallelShutdown())
+            beanShutdown = new BeanShutdown(this, getExecutorService(),
+                                            Runtime.getRuntime().availableProcessors() * 2,
+                                            kernelConfiguration.getBeanShutdownTimeout());
 
-            try
+         int index = 0;
+         while (index < shutdownDeployments.size())
+         {
+            // The beans of each run of consecutive bean deployments are stopped in
+            // dependency order; any other deployment is shut down at its position
+            if (beanShutdown != null && shutdownDeployments.get(index) instanceof BeanDeploymentImpl)
             {
-               shutdownDeployment(deployment);
+               List<BeanDeploymentImpl> beanDeployments = new ArrayList<BeanDeploymentImpl>();
+               int end = index;
+               while (end < shutdownDeployments.size() && shutdownDeployments.get(end) instanceof BeanDeploymentImpl)
+               {
+                  beanDeployments.add((BeanDeploymentImpl)shutdownDeployments.get(end));
+                  end++;
+               }
+
+               Throwable t = beanShutdown.shutdown(beanDeployments);
+               if (t != null && throwable == null)
+                  throwable = t;
+
+               while (index < end)
+               {
+                  Throwable st = unregisterAndShutdown(shutdownDeployments.get(index));
+                  if (st != null && throwable == null)
+                     throwable = st;
+
+                  index++;
+               }
             }
-            catch (Throwable t)
+            else
             {
-               if (throwable == null)
+               Throwable t = unregisterAndShutdown(shutdownDeployments.get(index));
+               if (t != null && throwable == null)
                   throwable = t;
+
+               index++;
             }
          }
       }
@@ -917,6 +1061,9 @@ public class KernelImpl implements Kernel, KernelImplMBean
       if (getExecutorService() != null)
          getExecutorService().shutdown();
 
+      if (beanScheduler != null)
+         beanScheduler.shutdown();
+
       // Cleanup temporary environment
       if (temporaryEnvironment)
       {
@@ -970,6 +1117,28 @@ public class KernelImpl implements Kernel, KernelImplMBean
          throw throwable;
    }
 
+   /**
+    * Unregister a deployment unit from the hot deployer and shut it down
+    * @param deployment The deployment unit
+    * @return The error; <code>null</code> if the deployment was shut down
+    */
+   private Throwable unregisterAndShutdown(Deployment deployment)
+   {
+      if (hotDeployer != null)
+         hotDeployer.unregister(deployment.getURL());
+
+      try
+      {
+         shutdownDeployment(deployment);
+      }
+      catch (Throwable t)
+      {
+         return t;
+      }
+
+      return null;
+   }
+
    /**
     * Shutdown a deployment unit
     * @param deployment The deployment unit
@@ -981,16 +1150,14 @@ public class KernelImpl implements Kernel, KernelImplMBean
       ClassLoader currentCL = SecurityActions.getThreadContextClassLoader();
       SecurityActions.setThreadContextClassLoader(deployment.getClassLoader());
 
+      BeanMetadata metadata = BeanMetadata.getMetadata(deployment.getClass());
+
       Throwable throwable = null;
       try
       {
-         Method stopMethod = deployment.getClass().getMethod("stop", (Class[])null);
-         stopMethod.setAccessible(true);
-         stopMethod.invoke(deployment, (Object[])null);
-      }
-      catch (NoSuchMethodException nsme)
-      {
-         // No stop method
+         Method stopMethod = metadata.getMethod("stop");
+         if (stopMethod != null)
+            stopMethod.invoke(deployment, (Object[])null);
       }
       catch (InvocationTargetException ite)
       {
@@ -999,13 +1166,9 @@ public class KernelImpl implements Kernel, KernelImplMBean
 
       try
       {
-         Method destroyMethod = deployment.getClass().getMethod("destroy", (Class[])null);
-         destroyMethod.setAccessible(true);
-         destroyMethod.invoke(deployment, (Object[])null);
-      }
-      catch (NoSuchMethodException nsme)
-      {
-         // No destroy method
+         Method destroyMethod = metadata.getMethod("destroy");
+         if (destroyMethod != null)
+            destroyMethod.invoke(deployment, (Object[])null);
       }
       catch (InvocationTargetException ite)
       {
@@ -1054,6 +1217,48 @@ public class KernelImpl implements Kernel, KernelImplMBean
       return threadPoolExecutor;
    }
 
+   /**
+    * Get the bean scheduler
+    * @return The bean scheduler
+    */
+   BeanScheduler getBeanScheduler()
+   {
+      if (beanScheduler == null)
+         throw new IllegalStateException("Bean scheduler is null");
+
+      return beanScheduler;
+   }
+
+   /**
+    * Get the directory for the binary form of parsed deployments
+    * @return The directory; <code>null</code> if deployments aren't cached
+    */
+   File getDeploymentCache()
+   {
+      return deploymentCache;
+   }
+
+   /**
+    * Schedule bean deployers in critical path order
+    * @param deployers The bean deployers
+    */
+   void schedule(List<BeanDeployer> deployers)
+   {
+      List<BeanDeployer> l = new ArrayList<BeanDeployer>(deployers);
+      Collections.sort(l, new Comparator<BeanDeployer>()
+      {
+         public int compare(BeanDeployer o1, BeanDeployer o2)
+         {
+            return o2.getPriority() - o1.getPriority();
+         }
+      });
+
+      for (BeanDeployer deployer : l)
+      {
+         deployer.schedule(getBeanScheduler());
+      }
+   }
+
    /**
     * Get the kernel configuration
     * @return The configuration
@@ -1080,34 +1285,43 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    void setBeanStatus(String name, ServiceLifecycle status)
    {
-      beanStatus.put(name, status);
-
-      if (trace)
-         log.log(Level.FINER, "Bean: " + name + ", Status: " + status);
-
       if (status == ServiceLifecycle.NOT_STARTED)
       {
-         List<CountDownLatch> l = beanLatches.get(name);
-         if (l == null)
+         // A bean deployed again after an error needs a new handle, since the
+         // old one has already been completed
+         BeanCompletion bc = getBeanCompletion(name);
+         while (bc.isCompleted() && !beanCompletions.replace(name, bc, new BeanCompletion()))
          {
-            beanLatches.put(name, Collections.synchronizedList(new ArrayList<CountDownLatch>(1)));
+            bc = getBeanCompletion(name);
          }
       }
-      else if (status == ServiceLifecycle.STARTED || status == ServiceLifecycle.ERROR)
+
+      beanStatus.put(name, status);
+
+      if (trace)
+         log.log(Level.FINER, "Bean: " + name + ", Status: " + status);
+
+      if (status == ServiceLifecycle.STARTED || status == ServiceLifecycle.ERROR)
+         getBeanCompletion(name).complete();
+   }
+
+   /**
+    * Get the completion handle of a bean; the handle is created if it doesn't exist
+    * @param name The name of the bean
+    * @return The handle
+    */
+   private BeanCompletion getBeanCompletion(String name)
+   {
+      BeanCompletion bc = beanCompletions.get(name);
+      if (bc == null)
       {
-         synchronized (beanLatches)
-         {
-            List<CountDownLatch> l = beanLatches.get(name);
-            if (l != null)
-            {
-               for (CountDownLatch cdl : l)
-               {
-                  if (cdl.getCount() > 0)
-                     cdl.countDown();
-               }
-            }
-         }
+         BeanCompletion newBc = new BeanCompletion();
+         bc = beanCompletions.putIfAbsent(name, newBc);
+         if (bc == null)
+            bc = newBc;
       }
+
+      return bc;
    }
 
    /**
@@ -1131,6 +1345,15 @@ public class KernelImpl implements Kernel, KernelImplMBean
       if (!beans.containsKey(name))
       {
          beans.put(name, bean);
+         beanMetadata.put(name, BeanMetadata.getMetadata(bean.getClass()));
+
+         for (Map.Entry<Class<?>, Set<Object>> entry : callbackTypes.entrySet())
+         {
+            if (entry.getKey().isInstance(bean))
+               entry.getValue().add(bean);
+         }
+
+         newCallbackBeans.add(name);
 
          if (mgt && kernelConfiguration.isManagement() && kernelConfiguration.isBeanManagement())
          {
@@ -1171,10 +1394,18 @@ public class KernelImpl implements Kernel, KernelImplMBean
       if (trace)
          log.log(Level.FINER, "Removing bean: " + name);
 
-      if (uncallbacks.size() > 0)
+      Object bean = beans.get(name);
+
+      if (bean != null)
       {
-         Object bean = beans.get(name);
+         for (Set<Object> assignable : callbackTypes.values())
+         {
+            assignable.remove(bean);
+         }
+      }
 
+      if (uncallbacks.size() > 0)
+      {
          if (bean != null)
          {
             if (callbackBeans.containsKey(bean))
@@ -1208,15 +1439,18 @@ public class KernelImpl implements Kernel, KernelImplMBean
                   }
                }
 
-               callbackBeans.remove(bean);
             }
          }
       }
 
+      if (bean != null)
+         callbackBeans.remove(bean);
+
       deployerPhasesBeans.remove(name);
       beans.remove(name);
+      beanMetadata.remove(name);
       beanStatus.remove(name);
-      beanLatches.remove(name);
+      beanCompletions.remove(name);
 
       if (mgt && kernelConfiguration.isManagement() && kernelConfiguration.isBeanManagement())
       {
@@ -1264,6 +1498,14 @@ public class KernelImpl implements Kernel, KernelImplMBean
       {
          if (beans != null)
          {
+            DependencyGraph graph = new DependencyGraph(Arrays.asList(beans));
+
+            if (graph.getCycle() != null)
+            {
+               beansRegistered();
+               throw new DeployException("Cyclic dependency: " + graph.getCycleDescription());
+            }
+
             for (Bean bt : beans)
             {
                setBeanStatus(bt.getName(), ServiceLifecycle.NOT_STARTED);
@@ -1271,6 +1513,8 @@ public class KernelImpl implements Kernel, KernelImplMBean
 
             beansRegistered();
 
+            Injection injection = new Injection(kernelConfiguration.isSystemPropertySnapshot());
+
             List<BeanDeployer> deployers = new ArrayList<BeanDeployer>(beans.length);
             List<String> beanNames = Collections.synchronizedList(new ArrayList<String>(beans.length));
             Map<String, List<Method>> uninstall = 
@@ -1288,13 +1532,13 @@ public class KernelImpl implements Kernel, KernelImplMBean
             {
                BeanDeployer deployer = new BeanDeployer(bt, beanNames, uninstall,
                                                         stops, destroys, ignoreStops, ignoreDestroys,
-                                                        this, beansLatch, kernelClassLoader, log);
+                                                        this, graph, injection, beansLatch, kernelClassLoader, log);
                deployers.add(deployer);
-
-               getExecutorService().submit(deployer);
             }
 
-            beansLatch.await();
+            schedule(deployers);
+
+            beanScheduler.await(beansLatch);
 
             Iterator<BeanDeployer> it = deployers.iterator();
             while (deployException == null && it.hasNext())
@@ -1307,7 +1551,8 @@ public class KernelImpl implements Kernel, KernelImplMBean
             if (deployException == null)
             {
                BeanDeployment deployment = new BeanDeploymentImpl(null, beanNames, uninstall, 
-                                                                  stops, destroys, ignoreStops, ignoreDestroys, this);
+                                                                  stops, destroys, ignoreStops, ignoreDestroys,
+                                                                  graph, this);
                registerDeployment(deployment);
                return deployment;
             }
@@ -1364,9 +1609,9 @@ public class KernelImpl implements Kernel, KernelImplMBean
     * Add a bean to the dependants map
     * @param from The name of the from bean
     * @param to The name of the to bean
-    * @param cdl The count down latch that should be notified
+    * @param dl The dependency latch that should be notified
     */
-   void addBeanDependants(String from, String to, CountDownLatch cdl)
+   void addBeanDependants(String from, String to, DependencyLatch dl)
    {
       // Register the 'from' -> 'to' binding
       Set<String> dependants = beanDependants.get(from);
@@ -1382,32 +1627,8 @@ public class KernelImpl implements Kernel, KernelImplMBean
       
       dependants.add(to);
 
-      // Register the count down latch if the 'to' hasn't started
-      ServiceLifecycle slc = getBeanStatus(to);
-      boolean doCountDown = true;
-
-      if (slc != ServiceLifecycle.STARTED && slc != ServiceLifecycle.ERROR)
-      {
-         synchronized (beanLatches)
-         {
-            slc = getBeanStatus(to);
-            if (slc != ServiceLifecycle.STARTED && slc != ServiceLifecycle.ERROR)
-            {
-               List<CountDownLatch> l = beanLatches.get(to);
-               if (l == null)
-               {
-                  l = Collections.synchronizedList(new ArrayList<CountDownLatch>(1));
-                  beanLatches.put(to, l);
-               }
-         
-               l.add(cdl);
-               doCountDown = false;
-            }
-         }
-      }
-
-      if (doCountDown)
-         cdl.countDown();
+      // The dependency latch is counted down once the 'to' has started
+      getBeanCompletion(to).addListener(dl);
    }
 
    /**
@@ -1526,6 +1747,14 @@ public class KernelImpl implements Kernel, KernelImplMBean
             sb.append("  DependsOn: None");
          }
          sb.append("\n");
+
+         DependencyGraph graph = getDependencyGraph(name);
+         if (graph != null)
+         {
+            sb.append("  Depth: ").append(graph.getPriority(name)).append("\n");
+            sb.append("  Create: ").append(DependencyGraph.time(graph.getCreateTime(name))).append("\n");
+            sb.append("  Start: ").append(DependencyGraph.time(graph.getStartTime(name))).append("\n");
+         }
          
       }
       else
@@ -1534,6 +1763,85 @@ public class KernelImpl implements Kernel, KernelImplMBean
       }
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public String dumpDependencyGraph()
+   {
+      StringBuilder sb = new StringBuilder();
+
+      for (Deployment deployment : getDeployments())
+      {
+         if (deployment instanceof BeanDeploymentImpl)
+         {
+            DependencyGraph graph = ((BeanDeploymentImpl)deployment).getDependencyGraph();
+
+            if (graph != null)
+            {
+               sb.append("Deployment \"").append(deployment.getURL()).append("\"\n");
+               graph.dump(sb);
+            }
+         }
+      }
+
+      return sb.toString();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getClassLoaderCacheHits()
+   {
+      long result = 0;
+
+      ClassLoader cl = kernelClassLoader;
+      while (cl instanceof KernelClassLoader)
+      {
+         result += ((KernelClassLoader)cl).getNegativeCacheHits();
+         cl = cl.getParent();
+      }
+
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getClassLoaderCacheMisses()
+   {
+      long result = 0;
+
+      ClassLoader cl = kernelClassLoader;
+      while (cl instanceof KernelClassLoader)
+      {
+         result += ((KernelClassLoader)cl).getNegativeCacheMisses();
+         cl = cl.getParent();
+      }
+
+      return result;
+   }
+
+   /**
+    * Get the dependency graph for a bean
+    * @param name The name of the bean
+    * @return The graph; <code>null</code> if the bean isn't part of a bean deployment
+    */
+   private DependencyGraph getDependencyGraph(String name)
+   {
+      for (Deployment deployment : getDeployments())
+      {
+         if (deployment instanceof BeanDeploymentImpl)
+         {
+            DependencyGraph graph = ((BeanDeploymentImpl)deployment).getDependencyGraph();
+
+            if (graph != null && graph.contains(name))
+               return graph;
+         }
+      }
+
+      return null;
+   }
+
    /**
     * Register an incallback method with the kernel
     * @param cb The callback structure
@@ -1543,7 +1851,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
       List<Callback> callbacks = incallbacks.get(cb.getType());
       if (callbacks == null)
       {
-         List<Callback> newCallbacks = Collections.synchronizedList(new ArrayList<Callback>(1));
+         List<Callback> newCallbacks = new CopyOnWriteArrayList<Callback>();
          callbacks = incallbacks.putIfAbsent(cb.getType(), newCallbacks);
          if (callbacks == null)
          {
@@ -1551,7 +1859,10 @@ public class KernelImpl implements Kernel, KernelImplMBean
          }
       }
       
+      getCallbackType(cb.getType());
+
       callbacks.add(cb);
+      newIncallbacks.add(cb);
    }
 
    /**
@@ -1563,7 +1874,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
       List<Callback> callbacks = uncallbacks.get(cb.getType());
       if (callbacks == null)
       {
-         List<Callback> newCallbacks = Collections.synchronizedList(new ArrayList<Callback>(1));
+         List<Callback> newCallbacks = new CopyOnWriteArrayList<Callback>();
          callbacks = uncallbacks.putIfAbsent(cb.getType(), newCallbacks);
          if (callbacks == null)
          {
@@ -1575,57 +1886,142 @@ public class KernelImpl implements Kernel, KernelImplMBean
    }
 
    /**
-    * Handle incallback
+    * Get the beans assignable to a callback type; the index is created
+    * from the current beans the first time the type is seen
+    * @param type The type
+    * @return The beans
     */
-   private void incallback()
+   private Set<Object> getCallbackType(Class<?> type)
    {
-      if (incallbacks.size() > 0)
+      Set<Object> assignable = callbackTypes.get(type);
+      if (assignable == null)
       {
-         Iterator<Map.Entry<Class<?>, List<Callback>>> cit = incallbacks.entrySet().iterator();
-         while (cit.hasNext())
+         Set<Object> newAssignable = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+         assignable = callbackTypes.putIfAbsent(type, newAssignable);
+         if (assignable == null)
          {
-            Map.Entry<Class<?>, List<Callback>> entry = cit.next();
+            assignable = newAssignable;
 
-            Class<?> type = entry.getKey();
-            List<Callback> callbacks = entry.getValue();
-            
-            Iterator<Object> bit = beans.values().iterator();
-            while (bit.hasNext())
+            for (Object bean : beans.values())
             {
-               Object bean = bit.next();
-
                if (type.isInstance(bean))
-               {
-                  for (Callback cb : callbacks)
-                  {
-                     List<Callback> registeredCallbacks = callbackBeans.get(bean);
-                     if (registeredCallbacks == null || !registeredCallbacks.contains(cb))
-                     {
-                        if (registeredCallbacks == null)
-                           registeredCallbacks = new ArrayList<Callback>(1);
+                  assignable.add(bean);
+            }
+         }
+      }
 
-                        try
-                        {
-                           Method m = cb.getMethod();
-                           Object instance = cb.getInstance();
-                           
-                           m.setAccessible(true);
-                           m.invoke(instance, new Object[] {bean});
+      return assignable;
+   }
 
-                           registeredCallbacks.add(cb);
-                           callbackBeans.put(bean, registeredCallbacks);
-                        }
-                        catch (Throwable t)
-                        {
-                           if (log.isLoggable(Level.FINE))
-                              log.fine(cb.toString());
-                        }
-                     }
+   /**
+    * Handle incallback; only the beans and incallbacks added since the last
+    * call are matched against each other and the existing registrations
+    */
+   private void incallback()
+   {
+      // Failed invocations are tried again during the next incallback
+      List<Callback> retryCallbacks = null;
+      List<String> retryBeans = null;
+
+      Callback cb = newIncallbacks.poll();
+      while (cb != null)
+      {
+         boolean success = true;
+         for (Object bean : getCallbackType(cb.getType()))
+         {
+            if (!incallback(cb, bean))
+               success = false;
+         }
+
+         if (!success)
+         {
+            if (retryCallbacks == null)
+               retryCallbacks = new ArrayList<Callback>(1);
+
+            retryCallbacks.add(cb);
+         }
+
+         cb = newIncallbacks.poll();
+      }
+
+      String name = newCallbackBeans.poll();
+      while (name != null)
+      {
+         Object bean = beans.get(name);
+
+         if (bean != null && incallbacks.size() > 0)
+         {
+            boolean success = true;
+            for (Map.Entry<Class<?>, List<Callback>> entry : incallbacks.entrySet())
+            {
+               if (entry.getKey().isInstance(bean))
+               {
+                  for (Callback callback : entry.getValue())
+                  {
+                     if (!incallback(callback, bean))
+                        success = false;
                   }
                }
             }
+
+            if (!success)
+            {
+               if (retryBeans == null)
+                  retryBeans = new ArrayList<String>(1);
+
+               retryBeans.add(name);
+            }
          }
+
+         name = newCallbackBeans.poll();
+      }
+
+      if (retryCallbacks != null)
+         newIncallbacks.addAll(retryCallbacks);
+
+      if (retryBeans != null)
+         newCallbackBeans.addAll(retryBeans);
+   }
+
+   /**
+    * Invoke an incallback for a bean, unless it has already been invoked
+    * @param cb The callback
+    * @param bean The bean
+    * @return False if the invocation failed; otherwise true
+    */
+   private boolean incallback(Callback cb, Object bean)
+   {
+      Set<Callback> registeredCallbacks = callbackBeans.get(bean);
+      if (registeredCallbacks == null)
+      {
+         Set<Callback> newRegisteredCallbacks = Collections.newSetFromMap(new ConcurrentHashMap<Callback, Boolean>());
+         registeredCallbacks = callbackBeans.putIfAbsent(bean, newRegisteredCallbacks);
+         if (registeredCallbacks == null)
+            registeredCallbacks = newRegisteredCallbacks;
+      }
+
+      if (!registeredCallbacks.add(cb))
+         return true;
+
+      try
+      {
+         Method m = cb.getMethod();
+         Object instance = cb.getInstance();
+                           
+         m.setAccessible(true);
+         m.invoke(instance, new Object[] {bean});
+
+         return true;
+      }
+      catch (Throwable t)
+      {
+         registeredCallbacks.remove(cb);
+
+         if (log.isLoggable(Level.FINE))
+            log.fine(cb.toString());
       }
+
+      return false;
    }
 
    /**
@@ -1753,6 +2149,28 @@ public class KernelImpl implements Kernel, KernelImplMBean
       newDeployerPhasesBeans.add(bean);
    }
 
+   /**
+    * Get a snapshot of the beans implementing the deployer phases
+    * @param activate Should newly registered beans be activated first
+    * @return The names of the beans
+    */
+   private List<String> getDeployerPhasesBeans(boolean activate)
+   {
+      if (activate)
+      {
+         synchronized (newDeployerPhasesBeans)
+         {
+            if (newDeployerPhasesBeans.size() > 0)
+            {
+               deployerPhasesBeans.addAll(newDeployerPhasesBeans);
+               newDeployerPhasesBeans.clear();
+            }
+         }
+      }
+
+      return new ArrayList<String>(deployerPhasesBeans);
+   }
+
    /**
     * Pre deploy
     * @param delegate True if any exception should be delegated
@@ -1760,13 +2178,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    void preDeploy(boolean delegate) throws Throwable
    {
-      if (newDeployerPhasesBeans.size() > 0)
-      {
-         deployerPhasesBeans.addAll(newDeployerPhasesBeans);
-         newDeployerPhasesBeans.clear();
-      }
-
-      for (String beanName : deployerPhasesBeans)
+      for (String beanName : getDeployerPhasesBeans(true))
       {
          DeployerPhases bean = (DeployerPhases)getBean(beanName);
 
@@ -1798,15 +2210,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    void postDeploy(boolean delegate) throws Throwable
    {
-      beanLatches.clear();
-
-      if (newDeployerPhasesBeans.size() > 0)
-      {
-         deployerPhasesBeans.addAll(newDeployerPhasesBeans);
-         newDeployerPhasesBeans.clear();
-      }
-
-      for (String beanName : deployerPhasesBeans)
+      for (String beanName : getDeployerPhasesBeans(true))
       {
          DeployerPhases bean = (DeployerPhases)getBean(beanName);
 
@@ -1838,7 +2242,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    void preUndeploy(boolean delegate) throws Throwable
    {
-      for (String beanName : deployerPhasesBeans)
+      for (String beanName : getDeployerPhasesBeans(false))
       {
          DeployerPhases bean = (DeployerPhases)getBean(beanName);
 
@@ -1870,7 +2274,7 @@ public class KernelImpl implements Kernel, KernelImplMBean
     */
    void postUndeploy(boolean delegate) throws Throwable
    {
-      for (String beanName : deployerPhasesBeans)
+      for (String beanName : getDeployerPhasesBeans(false))
       {
          DeployerPhases bean = (DeployerPhases)getBean(beanName);
 
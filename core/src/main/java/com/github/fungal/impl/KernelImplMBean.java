@@ -50,4 +50,25 @@ public interface KernelImplMBean
     * @return The information
     */
    public String dump(String name);
+
+   /**
+    * Dump the dependency graph of each bean deployment including
+    * the create and start times of the beans and the critical path
+    * @return The information
+    */
+   public String dumpDependencyGraph();
+
+   /**
+    * Get the number of class and resource lookups answered by the
+    * negative caches of the kernel class loaders
+    * @return The value
+    */
+   public long getClassLoaderCacheHits();
+
+   /**
+    * Get the number of class and resource lookups not answered by the
+    * negative caches of the kernel class loaders
+    * @return The value
+    */
+   public long getClassLoaderCacheMisses();
 }
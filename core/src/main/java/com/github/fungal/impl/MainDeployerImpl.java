@@ -28,11 +28,18 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * The main deployer for Fungal
+ * The main deployer for Fungal.
+ *
+ * Operations on the same deployment URL are serialized, while operations on
+ * different URLs run concurrently. The locks are shared between all copies
+ * of the main deployer.
  * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
  */
 public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
@@ -46,6 +53,9 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
    private KernelImpl kernel;
    private Deployers deployers;
 
+   /** The locks for the deployment URLs in use */
+   private ConcurrentMap<String, DeploymentLock> locks;
+
    /**
     * Constructor
     * @param kernel The kernel
@@ -61,6 +71,7 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
 
       this.kernel = kernel;
       this.deployers = deployers;
+      this.locks = new ConcurrentHashMap<String, DeploymentLock>();
    }
 
    /**
@@ -77,7 +88,7 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
     * @param url The URL for the deployment
     * @exception Throwable If an error occurs
     */
-   public synchronized void deploy(URL url) throws Throwable
+   public void deploy(URL url) throws Throwable
    {
       deploy(url, true, kernel.getKernelClassLoader());
    }
@@ -90,7 +101,7 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
     * @exception Throwable If an error occurs
     */
    @SuppressWarnings("unchecked")
-   synchronized void deploy(URL url, boolean deployerPhases, ClassLoader classLoader) throws Throwable
+   void deploy(URL url, boolean deployerPhases, ClassLoader classLoader) throws Throwable
    {
       if (url == null)
          throw new IllegalArgumentException("URL is null");
@@ -98,6 +109,26 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
       if (classLoader == null)
          throw new IllegalArgumentException("ClassLoader is null");
 
+      DeploymentLock lock = lock(url.toString());
+      try
+      {
+         doDeploy(url, deployerPhases, classLoader);
+      }
+      finally
+      {
+         unlock(url.toString(), lock);
+      }
+   }
+
+   /**
+    * Deploy while holding the lock for the URL
+    * @param url The URL for the deployment
+    * @param deployerPhases Run DeployerPhases hooks
+    * @param classLoader The parent class loader for the deployment
+    * @exception Throwable If an error occurs
+    */
+   private void doDeploy(URL url, boolean deployerPhases, ClassLoader classLoader) throws Throwable
+   {
       if (trace)
          log.log(Level.FINER, "Deploy: " + url.toExternalForm());
 
@@ -167,7 +198,7 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
     * @param url The URL for the deployment
     * @exception Throwable If an error occurs
     */
-   public synchronized void undeploy(URL url) throws Throwable
+   public void undeploy(URL url) throws Throwable
    {
       undeploy(url, true);
    }
@@ -178,11 +209,30 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
     * @param deployerPhases Enable deployer phases
     * @exception Throwable If an error occurs
     */
-   synchronized void undeploy(URL url, boolean deployerPhases) throws Throwable
+   void undeploy(URL url, boolean deployerPhases) throws Throwable
    {
       if (url == null)
          throw new IllegalArgumentException("URL is null");
 
+      DeploymentLock lock = lock(url.toString());
+      try
+      {
+         doUndeploy(url, deployerPhases);
+      }
+      finally
+      {
+         unlock(url.toString(), lock);
+      }
+   }
+
+   /**
+    * Undeploy while holding the lock for the URL
+    * @param url The URL for the deployment
+    * @param deployerPhases Enable deployer phases
+    * @exception Throwable If an error occurs
+    */
+   private void doUndeploy(URL url, boolean deployerPhases) throws Throwable
+   {
       if (trace)
          log.log(Level.FINER, "Undeploy: " + url.toExternalForm());
 
@@ -220,7 +270,7 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
     * Register a deployment -- advanced usage
     * @param deployment The deployment
     */
-   public synchronized void registerDeployment(Deployment deployment)
+   public void registerDeployment(Deployment deployment)
    {
       if (deployment == null)
          throw new IllegalArgumentException("Deployment is null");
@@ -228,7 +278,16 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
       if (trace)
          log.log(Level.FINER, "RegisterDeployment: " + deployment);
 
-      kernel.registerDeployment(deployment);
+      String key = deployment.getURL() != null ? deployment.getURL().toString() : "";
+      DeploymentLock lock = lock(key);
+      try
+      {
+         kernel.registerDeployment(deployment);
+      }
+      finally
+      {
+         unlock(key, lock);
+      }
    }
 
    /**
@@ -236,7 +295,7 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
     * @param deployment The deployment
     * @exception Throwable If an error occurs
     */
-   public synchronized void unregisterDeployment(Deployment deployment) throws Throwable
+   public void unregisterDeployment(Deployment deployment) throws Throwable
    {
       if (deployment == null)
          throw new IllegalArgumentException("Deployment is null");
@@ -244,7 +303,68 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
       if (trace)
          log.log(Level.FINER, "UnregisterDeployment: " + deployment);
 
-      kernel.shutdownDeployment(deployment);
+      String key = deployment.getURL() != null ? deployment.getURL().toString() : "";
+      DeploymentLock lock = lock(key);
+      try
+      {
+         kernel.shutdownDeployment(deployment);
+      }
+      finally
+      {
+         unlock(key, lock);
+      }
+   }
+
+   /**
+    * Acquire the lock for a deployment URL
+    * @param key The URL
+    * @return The lock
+    */
+   private DeploymentLock lock(String key)
+   {
+      while (true)
+      {
+         DeploymentLock lock = locks.get(key);
+         if (lock == null)
+         {
+            DeploymentLock newLock = new DeploymentLock();
+            lock = locks.putIfAbsent(key, newLock);
+            if (lock == null)
+               lock = newLock;
+         }
+
+         synchronized (lock)
+         {
+            // The lock was released by its last user while we looked it up
+            if (lock.removed)
+               continue;
+
+            lock.users++;
+         }
+
+         lock.lock.lock();
+         return lock;
+      }
+   }
+
+   /**
+    * Release the lock for a deployment URL; the lock is discarded once it has no users
+    * @param key The URL
+    * @param lock The lock
+    */
+   private void unlock(String key, DeploymentLock lock)
+   {
+      lock.lock.unlock();
+
+      synchronized (lock)
+      {
+         lock.users--;
+         if (lock.users == 0)
+         {
+            lock.removed = true;
+            locks.remove(key, lock);
+         }
+      }
    }
 
    /**
@@ -257,7 +377,23 @@ public final class MainDeployerImpl implements Cloneable, MainDeployerImplMBean
       MainDeployerImpl md = (MainDeployerImpl)super.clone();
       md.kernel = kernel;
       md.deployers = deployers;
+      md.locks = locks;
       
       return md;
    }
+
+   /**
+    * The lock for a deployment URL
+    */
+   static class DeploymentLock
+   {
+      /** The lock */
+      private ReentrantLock lock = new ReentrantLock();
+
+      /** The number of threads holding or waiting for the lock */
+      private int users;
+
+      /** Has the lock been discarded */
+      private boolean removed;
+   }
 }
@@ -0,0 +1,596 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.github.fungal.impl.classloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Persistent index of the manifest information of archives, so archives which
+ * haven't changed since the last start doesn't have to be opened again
+ * @author <a href="mailto:jesper.pedersen@comcast.net">Jesper Pedersen</a>
+ */
+class ArchiveIndex
+{
+   /** Magic */
+   private static final int MAGIC = 0x46434c49;
+
+   /** Format version */
+   private static final int FORMAT = 1;
+
+   /** The index file */
+   private File file;
+
+   /** Entries */
+   private ConcurrentMap<String, Entry> entries;
+
+   /** Has the index changed */
+   private volatile boolean changed;
+
+   /**
+    * Constructor
+    * @param file The index file; <code>null</code> if the index shouldn't be persisted
+    */
+   ArchiveIndex(File file)
+   {
+      this.file = file;
+      this.entries = new ConcurrentHashMap<String, Entry>();
+      this.changed = false;
+
+      if (file != null && file.exists())
+         load();
+   }
+
+   /**
+    * Get the entry for an archive
+    * @param f The archive
+    * @return The entry
+    * @exception IOException Thrown if the archive can't be read
+    */
+   Entry getEntry(File f) throws IOException
+   {
+      String path = f.getAbsolutePath();
+      long size = f.length();
+      long lastModified = f.lastModified();
+
+      Entry entry = entries.get(path);
+
+      if (entry != null && entry.size == size && entry.lastModified == lastModified)
+         return entry;
+
+      entry = Entry.create(f, path, size, lastModified);
+
+      entries.put(path, entry);
+      changed = true;
+
+      return entry;
+   }
+
+   /**
+    * Store the index if it has changed
+    */
+   void store()
+   {
+      if (file == null || !changed)
+         return;
+
+      File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+      DataOutputStream dos = null;
+      try
+      {
+         dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+         List<Entry> l = new ArrayList<Entry>(entries.size());
+         for (Entry entry : entries.values())
+         {
+            if (new File(entry.path).exists())
+               l.add(entry);
+         }
+
+         dos.writeInt(MAGIC);
+         dos.writeInt(FORMAT);
+         dos.writeInt(l.size());
+
+         for (Entry entry : l)
+         {
+            entry.write(dos);
+         }
+
+         dos.flush();
+         dos.close();
+         dos = null;
+
+         if (!tmp.renameTo(file))
+         {
+            file.delete();
+
+            if (!tmp.renameTo(file))
+               throw new IOException("Unable to rename " + tmp + " to " + file);
+         }
+
+         changed = false;
+      }
+      catch (IOException ioe)
+      {
+         tmp.delete();
+      }
+      finally
+      {
+         if (dos != null)
+         {
+            try
+            {
+               dos.close();
+            }
+            catch (IOException ioe)
+            {
+               // Ignore
+            }
+
+            tmp.delete();
+         }
+      }
+   }
+
+   /**
+    * Load the index; an index which can't be read is ignored
+    */
+   private void load()
+   {
+      DataInputStream dis = null;
+      try
+      {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+         if (dis.readInt() != MAGIC || dis.readInt() != FORMAT)
+         {
+            changed = true;
+            return;
+         }
+
+         int count = readCount(dis);
+         Map<String, Entry> m = new HashMap<String, Entry>(getCapacity(count));
+
+         for (int i = 0; i < count; i++)
+         {
+            Entry entry = Entry.read(dis);
+            m.put(entry.path, entry);
+         }
+
+         entries.putAll(m);
+      }
+      catch (Throwable t)
+      {
+         // A truncated or corrupt index is rebuilt
+         changed = true;
+      }
+      finally
+      {
+         if (dis != null)
+         {
+            try
+            {
+               dis.close();
+            }
+            catch (IOException ioe)
+            {
+               // Ignore
+            }
+         }
+      }
+   }
+
+   /**
+    * Read a count
+    * @param dis The input stream
+    * @return The value
+    * @exception IOException Thrown if an error occurs, or if the count is negative
+    */
+   private static int readCount(DataInputStream dis) throws IOException
+   {
+      int count = dis.readInt();
+
+      if (count < 0)
+         throw new IOException("Invalid count: " + count);
+
+      return count;
+   }
+
+   /**
+    * Get the initial capacity of a collection read from the index; a corrupt count
+    * must not allocate more than the index can contain
+    * @param count The count
+    * @return The value
+    */
+   private static int getCapacity(int count)
+   {
+      return Math.min(count, 1024);
+   }
+
+   /**
+    * Write a string which may be <code>null</code>
+    * @param dos The output stream
+    * @param s The string
+    * @exception IOException Thrown if an error occurs
+    */
+   private static void writeString(DataOutputStream dos, String s) throws IOException
+   {
+      dos.writeBoolean(s != null);
+
+      if (s != null)
+         dos.writeUTF(s);
+   }
+
+   /**
+    * Read a string which may be <code>null</code>
+    * @param dis The input stream
+    * @return The string
+    * @exception IOException Thrown if an error occurs
+    */
+   private static String readString(DataInputStream dis) throws IOException
+   {
+      if (dis.readBoolean())
+         return dis.readUTF();
+
+      return null;
+   }
+
+   /**
+    * The manifest information of an archive
+    */
+   static class Entry
+   {
+      /** The path */
+      private String path;
+
+      /** The size */
+      private long size;
+
+      /** The last modified time */
+      private long lastModified;
+
+      /** Is the archive a bundle */
+      private boolean bundle;
+
+      /** The bundle version */
+      private String bundleVersion;
+
+      /** The export packages */
+      private Set<String> exportPackages;
+
+      /** The imports: Version -> Packages; the bundles required are under the <code>null</code> version */
+      private Map<String, List<String>> imports;
+
+      /**
+       * Constructor
+       * @param path The path
+       * @param size The size
+       * @param lastModified The last modified time
+       */
+      private Entry(String path, long size, long lastModified)
+      {
+         this.path = path;
+         this.size = size;
+         this.lastModified = lastModified;
+         this.bundle = false;
+         this.bundleVersion = null;
+         this.exportPackages = Collections.emptySet();
+         this.imports = Collections.emptyMap();
+      }
+
+      /**
+       * Is the archive a bundle
+       * @return True if a bundle; otherwise false
+       */
+      boolean isBundle()
+      {
+         return bundle;
+      }
+
+      /**
+       * Get the bundle version
+       * @return The value
+       */
+      String getBundleVersion()
+      {
+         return bundleVersion;
+      }
+
+      /**
+       * Get the export packages
+       * @return The value
+       */
+      Set<String> getExportPackages()
+      {
+         return exportPackages;
+      }
+
+      /**
+       * Get the imports
+       * @return Version -> Packages; the bundles required are under the <code>null</code> version
+       */
+      Map<String, List<String>> getImports()
+      {
+         return imports;
+      }
+
+      /**
+       * Create an entry from the manifest of an archive
+       * @param f The archive
+       * @param path The path
+       * @param size The size
+       * @param lastModified The last modified time
+       * @return The entry
+       * @exception IOException Thrown if the archive can't be read
+       */
+      static Entry create(File f, String path, long size, long lastModified) throws IOException
+      {
+         Entry entry = new Entry(path, size, lastModified);
+
+         JarFile jarFile = null;
+         try
+         {
+            jarFile = new JarFile(f);
+
+            Manifest manifest = jarFile.getManifest();
+            if (manifest == null)
+               return entry;
+
+            Attributes mainAttributes = manifest.getMainAttributes();
+
+            String bundleManifestVersion = mainAttributes.getValue("Bundle-ManifestVersion");
+            if (bundleManifestVersion == null)
+               return entry;
+
+            // Export-Package
+            String input = mainAttributes.getValue("Export-Package");
+            if (input == null)
+               return entry;
+
+            boolean semi = false;
+            boolean quote = false;
+            StringBuilder sb = new StringBuilder();
+
+            Set<String> exportPackages = new HashSet<String>(1);
+
+            for (int i = 0; i < input.length(); i++)
+            {
+               char c = input.charAt(i);
+
+               if (c == ',')
+               {
+                  if (!quote)
+                  {
+                     String exportPackage = sb.toString().trim();
+
+                     semi = false;
+                     quote = false;
+                     sb = new StringBuilder();
+
+                     if (!exportPackage.equals(""))
+                     {
+                        exportPackages.add(exportPackage);
+                     }
+                  }
+               }
+               else if (c == ';')
+               {
+                  semi = true;
+               }
+               else if (c == '\"')
+               {
+                  quote = !quote;
+               }
+               else
+               {
+                  if (!semi)
+                     sb = sb.append(c);
+               }
+            }
+
+            if (sb.length() > 0)
+               exportPackages.add(sb.toString().trim());
+
+            Map<String, List<String>> imports = new HashMap<String, List<String>>();
+
+            // Import-Package
+            input = mainAttributes.getValue("Import-Package");
+
+            if (input != null)
+            {
+               StringTokenizer st = new StringTokenizer(input, ",");
+               while (st.hasMoreTokens())
+               {
+                  String token = st.nextToken().trim();
+
+                  int versionIndex = token.indexOf(";version=");
+                  if (versionIndex != -1)
+                  {
+                     String pkg = token.substring(0, versionIndex);
+                     String ver = token.substring(versionIndex + 9);
+                           
+                     if (pkg.indexOf(";") != -1)
+                        pkg = pkg.substring(0, pkg.indexOf(";"));
+
+                     if (ver.startsWith("\""))
+                        ver = ver.substring(1);
+
+                     if (ver.endsWith("\""))
+                        ver = ver.substring(0, ver.length() - 1);
+
+                     List<String> l = imports.get(ver);
+
+                     if (l == null)
+                        l = new ArrayList<String>();
+                              
+                     l.add(pkg);
+                     imports.put(ver, l);
+                  }
+               }
+            }
+
+            // Require-Bundle
+            input = mainAttributes.getValue("Require-Bundle");
+
+            if (input != null)
+            {
+               StringTokenizer st = new StringTokenizer(input, ",");
+               while (st.hasMoreTokens())
+               {
+                  String token = st.nextToken().trim();
+                              
+                  int delimiter = token.indexOf(";");
+
+                  if (delimiter != -1)
+                     token = token.substring(0, delimiter);
+
+                  List<String> l = imports.get(null);
+
+                  if (l == null)
+                     l = new ArrayList<String>();
+                              
+                  l.add(token);
+                  imports.put(null, l);
+               }
+            }
+
+            entry.bundle = true;
+            entry.bundleVersion = mainAttributes.getValue("Bundle-Version");
+            entry.exportPackages = exportPackages;
+            entry.imports = imports;
+
+            return entry;
+         }
+         finally
+         {
+            if (jarFile != null)
+            {
+               try
+               {
+                  jarFile.close();
+               }
+               catch (IOException ioe)
+               {
+                  // Ignore
+               }
+            }
+         }
+      }
+
+      /**
+       * Write the entry
+       * @param dos The output stream
+       * @exception IOException Thrown if an error occurs
+       */
+      void write(DataOutputStream dos) throws IOException
+      {
+         dos.writeUTF(path);
+         dos.writeLong(size);
+         dos.writeLong(lastModified);
+         dos.writeBoolean(bundle);
+
+         if (bundle)
+         {
+            writeString(dos, bundleVersion);
+
+            dos.writeInt(exportPackages.size());
+            for (String pkg : exportPackages)
+            {
+               dos.writeUTF(pkg);
+            }
+
+            dos.writeInt(imports.size());
+            Iterator<Map.Entry<String, List<String>>> it = imports.entrySet().iterator();
+            while (it.hasNext())
+            {
+               Map.Entry<String, List<String>> entry = it.next();
+
+               writeString(dos, entry.getKey());
+               dos.writeInt(entry.getValue().size());
+               for (String pkg : entry.getValue())
+               {
+                  dos.writeUTF(pkg);
+               }
+            }
+         }
+      }
+
+      /**
+       * Read an entry
+       * @param dis The input stream
+       * @return The entry
+       * @exception IOException Thrown if an error occurs
+       */
+      static Entry read(DataInputStream dis) throws IOException
+      {
+         Entry entry = new Entry(dis.readUTF(), dis.readLong(), dis.readLong());
+
+         if (dis.readBoolean())
+         {
+            entry.bundle = true;
+            entry.bundleVersion = readString(dis);
+
+            int exports = readCount(dis);
+            entry.exportPackages = new HashSet<String>(getCapacity(exports));
+            for (int i = 0; i < exports; i++)
+            {
+               entry.exportPackages.add(dis.readUTF());
+            }
+
+            int imports = readCount(dis);
+            entry.imports = new HashMap<String, List<String>>(getCapacity(imports));
+            for (int i = 0; i < imports; i++)
+            {
+               String version = readString(dis);
+               int pkgs = readCount(dis);
+               List<String> l = new ArrayList<String>(getCapacity(pkgs));
+               for (int j = 0; j < pkgs; j++)
+               {
+                  l.add(dis.readUTF());
+               }
+               entry.imports.put(version, l);
+            }
+         }
+
+         return entry;
+      }
+   }
+}
@@ -22,6 +22,7 @@ package com.github.fungal.impl.classloader;
 
 import com.github.fungal.api.classloading.KernelClassLoader;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -30,6 +31,7 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Executor;
 
 /**
  * Export class loader (OSGi like)
@@ -49,10 +51,22 @@ public class ExportClassLoader extends KernelClassLoader
     * @param parent The parent class loader
     */
    public ExportClassLoader(URL[] urls, ClassLoader parent)
+   {
+      this(urls, parent, null, null);
+   }
+
+   /**
+    * Constructor
+    * @param urls The URLs for JAR archives or directories
+    * @param parent The parent class loader
+    * @param index The archive index file; <code>null</code> if the index shouldn't be persisted
+    * @param executor The executor used for scanning the archives; can be <code>null</code>
+    */
+   public ExportClassLoader(URL[] urls, ClassLoader parent, File index, Executor executor)
    {
       super(new URL[0], parent);
 
-      this.eclr = new ExportClassLoaderRepository();
+      this.eclr = new ExportClassLoaderRepository(index, executor);
 
       if (urls != null)
       {
@@ -73,7 +87,9 @@ public class ExportClassLoader extends KernelClassLoader
 
       if (classLoaders != null)
       {
-         for (Integer id : classLoaders)
+         List<Integer> exporters = eclr.getPackageClassLoaders(getPackageName(name));
+
+         for (Integer id : exporters != null ? exporters : classLoaders)
          {
             ArchiveClassLoader acl = eclr.getClassLoader(id);
 
@@ -106,7 +122,15 @@ public class ExportClassLoader extends KernelClassLoader
          // Ignore
       }
 
-      return loadClass(name, false);
+      try
+      {
+         return loadClass(name, false);
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         addMissingClass(name);
+         throw cnfe;
+      }
    }
 
    /**
@@ -115,20 +139,44 @@ public class ExportClassLoader extends KernelClassLoader
    @Override
    public URL getResource(String name)
    {
+      if (isMissingResource(name))
+         return null;
+
       URL resource = null;
 
       if (classLoaders != null)
       {
-         for (Integer id : classLoaders)
+         List<Integer> exporters = eclr.getPackageClassLoaders(getResourcePackageName(name));
+
+         if (exporters != null)
          {
-            ArchiveClassLoader acl = eclr.getClassLoader(id);
+            for (Integer id : exporters)
+            {
+               ArchiveClassLoader acl = eclr.getClassLoader(id);
 
-            if (acl != null)
+               if (acl != null)
+               {
+                  resource = acl.getResource(name);
+
+                  if (resource != null)
+                     return resource;
+               }
+            }
+         }
+
+         for (Integer id : classLoaders)
+         {
+            if (exporters == null || !exporters.contains(id))
             {
-               resource = acl.getResource(name);
+               ArchiveClassLoader acl = eclr.getClassLoader(id);
 
-               if (resource != null)
-                  return resource;
+               if (acl != null)
+               {
+                  resource = acl.getResource(name);
+
+                  if (resource != null)
+                     return resource;
+               }
             }
          }
       }
@@ -138,7 +186,12 @@ public class ExportClassLoader extends KernelClassLoader
       if (resource != null)
          return resource;
 
-      return super.getResource(name);
+      resource = super.getResource(name);
+
+      if (resource == null)
+         addMissingResource(name);
+
+      return resource;
    }
 
    /**
@@ -147,20 +200,44 @@ public class ExportClassLoader extends KernelClassLoader
    @Override
    public InputStream getResourceAsStream(String name)
    {
+      if (isMissingResource(name))
+         return null;
+
       InputStream is = null;
 
       if (classLoaders != null)
       {
-         for (Integer id : classLoaders)
+         List<Integer> exporters = eclr.getPackageClassLoaders(getResourcePackageName(name));
+
+         if (exporters != null)
          {
-            ArchiveClassLoader acl = eclr.getClassLoader(id);
+            for (Integer id : exporters)
+            {
+               ArchiveClassLoader acl = eclr.getClassLoader(id);
 
-            if (acl != null)
+               if (acl != null)
+               {
+                  is = acl.getResourceAsStream(name);
+
+                  if (is != null)
+                     return is;
+               }
+            }
+         }
+
+         for (Integer id : classLoaders)
+         {
+            if (exporters == null || !exporters.contains(id))
             {
-               is = acl.getResourceAsStream(name);
+               ArchiveClassLoader acl = eclr.getClassLoader(id);
+
+               if (acl != null)
+               {
+                  is = acl.getResourceAsStream(name);
 
-               if (is != null)
-                  return is;
+                  if (is != null)
+                     return is;
+               }
             }
          }
       }
@@ -170,7 +247,12 @@ public class ExportClassLoader extends KernelClassLoader
       if (is != null)
          return is;
 
-      return super.getResourceAsStream(name);
+      is = super.getResourceAsStream(name);
+
+      if (is == null)
+         addMissingResource(name);
+
+      return is;
    }
 
    /**
@@ -386,6 +468,37 @@ public class ExportClassLoader extends KernelClassLoader
       return result.toArray(new URL[result.size()]);
    }
 
+   /**
+    * Get the package name for a class
+    * @param name The fully qualified class name
+    * @return The package name
+    */
+   private static String getPackageName(String name)
+   {
+      int lastDot = name.lastIndexOf('.');
+
+      if (lastDot != -1)
+         return name.substring(0, lastDot);
+
+      return "";
+   }
+
+   /**
+    * Get the package name for a resource
+    * @param name The resource name
+    * @return The package name
+    */
+   private static String getResourcePackageName(String name)
+   {
+      int start = name.startsWith("/") ? 1 : 0;
+      int lastSlash = name.lastIndexOf('/');
+
+      if (lastSlash > start)
+         return name.substring(start, lastSlash).replace('/', '.');
+
+      return "";
+   }
+
    /**
     * String representation
     * @return The string
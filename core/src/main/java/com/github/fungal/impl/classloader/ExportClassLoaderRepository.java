@@ -21,10 +21,10 @@
 package com.github.fungal.impl.classloader;
 
 import java.io.File;
-import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -32,14 +32,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.jar.Attributes;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
 
 /**
  * Export class loader repository
@@ -59,15 +58,38 @@ class ExportClassLoaderRepository
    /** Package + Version mapping */
    private ConcurrentMap<String, SortedMap<String, Set<Integer>>> packages;
 
+   /** Package to class loaders mapping, latest version first */
+   private ConcurrentMap<String, List<Integer>> exporters;
+
+   /** Archive index */
+   private ArchiveIndex index;
+
+   /** Executor used for scanning archives */
+   private Executor executor;
+
    /**
     * Constructor
     */
    ExportClassLoaderRepository()
+   {
+      this(null, null);
+   }
+
+   /**
+    * Constructor
+    * @param indexFile The archive index file; <code>null</code> if the index shouldn't be persisted
+    * @param executor The executor used for scanning archives; <code>null</code> if the archives
+    *                 should be scanned by the calling thread
+    */
+   ExportClassLoaderRepository(File indexFile, Executor executor)
    {
       nonExportClassLoader = SecurityActions.createNonExportClassLoader(this);
       idCounter = new AtomicInteger(0);
       classLoaders = new ConcurrentHashMap<Integer, ArchiveClassLoader>();
       packages = new ConcurrentHashMap<String, SortedMap<String, Set<Integer>>>();
+      exporters = new ConcurrentHashMap<String, List<Integer>>();
+      index = new ArchiveIndex(indexFile);
+      this.executor = executor;
    }
 
    /**
@@ -109,6 +131,16 @@ class ExportClassLoaderRepository
       return null;
    }
 
+   /**
+    * Get the archive class loaders exporting a package
+    * @param pkg The package name
+    * @return The class loader ids with the latest version first; <code>null</code> if the package isn't exported
+    */
+   List<Integer> getPackageClassLoaders(String pkg)
+   {
+      return exporters.get(pkg);
+   }
+
    /**
     * Get archive class loaders
     * @return The class loaders
@@ -146,202 +178,79 @@ class ExportClassLoaderRepository
       // Classloader id -> Version, Packages
       Map<Integer, Map<String, List<String>>> imports = new HashMap<Integer, Map<String, List<String>>>();
 
-      for (URL url : urls)
+      ArchiveIndex.Entry[] archives = new ArchiveIndex.Entry[urls.length];
+      Throwable[] errors = new Throwable[urls.length];
+
+      scan(urls, archives, errors);
+
+      for (int u = 0; u < urls.length; u++)
       {
+         URL url = urls[u];
          boolean added = false;
 
-         if ("file".equals(url.getProtocol()))
+         if (errors[u] != null)
+         {
+            System.out.println("REPO: (" + url + ") =");
+            errors[u].printStackTrace(System.out);
+         }
+         else if (archives[u] != null && archives[u].isBundle())
          {
-            JarFile jarFile = null;
+            ArchiveIndex.Entry archive = archives[u];
             try
             {
-               File f = new File(url.toURI());
+               Integer identifier = Integer.valueOf(idCounter.getAndIncrement());
+               String bundleVersion = archive.getBundleVersion();
+               Set<String> exportPackages = archive.getExportPackages();
 
-               if (f.isFile())
-               {
-                  jarFile = new JarFile(f);
+               if (archive.getImports().size() > 0)
+                  imports.put(identifier, archive.getImports());
 
-                  Manifest manifest = jarFile.getManifest();
-                  if (manifest != null)
-                  {
-                     Attributes mainAttributes = manifest.getMainAttributes();
+               for (String s : exportPackages)
+               {
+                  SortedMap<String, Set<Integer>> sm = packages.get(s);
 
-                     String bundleManifestVersion = mainAttributes.getValue("Bundle-ManifestVersion");
-                     if (bundleManifestVersion != null)
-                     {
-                        Integer identifier = Integer.valueOf(idCounter.getAndIncrement());
-                        String bundleVersion = mainAttributes.getValue("Bundle-Version");
-
-                        // Export-Package
-                        String input = mainAttributes.getValue("Export-Package");
-
-                        boolean semi = false;
-                        boolean quote = false;
-                        StringBuilder sb = new StringBuilder();
-
-                        Set<String> exportPackages = new HashSet<String>(1);
-
-                        for (int i = 0; i < input.length(); i++)
-                        {
-                           char c = input.charAt(i);
-
-                           if (c == ',')
-                           {
-                              if (!quote)
-                              {
-                                 String exportPackage = sb.toString().trim();
-
-                                 semi = false;
-                                 quote = false;
-                                 sb = new StringBuilder();
-
-                                 if (!exportPackage.equals(""))
-                                 {
-                                    exportPackages.add(exportPackage);
-                                 }
-                              }
-                           }
-                           else if (c == ';')
-                           {
-                              semi = true;
-                           }
-                           else if (c == '\"')
-                           {
-                              quote = !quote;
-                           }
-                           else
-                           {
-                              if (!semi)
-                                 sb = sb.append(c);
-                           }
-                        }
-
-                        if (sb.length() > 0)
-                           exportPackages.add(sb.toString().trim());
-
-                        // Import-Package
-                        input = mainAttributes.getValue("Import-Package");
-
-                        if (input != null)
-                        {
-                           StringTokenizer st = new StringTokenizer(input, ",");
-                           while (st.hasMoreTokens())
-                           {
-                              String token = st.nextToken().trim();
-
-                              int versionIndex = token.indexOf(";version=");
-                              if (versionIndex != -1)
-                              {
-                                 String pkg = token.substring(0, versionIndex);
-                                 String ver = token.substring(versionIndex + 9);
-                           
-                                 if (pkg.indexOf(";") != -1)
-                                    pkg = pkg.substring(0, pkg.indexOf(";"));
-
-                                 if (ver.startsWith("\""))
-                                    ver = ver.substring(1);
-
-                                 if (ver.endsWith("\""))
-                                    ver = ver.substring(0, ver.length() - 1);
-
-                                 Map<String, List<String>> value = imports.get(identifier);
-                           
-                                 if (value == null)
-                                    value = new HashMap<String, List<String>>();
-                              
-                                 List<String> l = value.get(ver);
-
-                                 if (l == null)
-                                    l = new ArrayList<String>();
-                              
-                                 l.add(pkg);
-                                 value.put(ver, l);
-                                 imports.put(identifier, value);
-                              }
-                           }
-                        }
-                        // Require-Bundle
-                        input = mainAttributes.getValue("Require-Bundle");
-
-                        if (input != null)
-                        {
-                           StringTokenizer st = new StringTokenizer(input, ",");
-                           while (st.hasMoreTokens())
-                           {
-                              String token = st.nextToken().trim();
-                              
-                              int delimiter = token.indexOf(";");
-
-                              if (delimiter != -1)
-                                 token = token.substring(0, delimiter);
-
-                              Map<String, List<String>> value = imports.get(identifier);
-                           
-                              if (value == null)
-                                 value = new HashMap<String, List<String>>();
-                              
-                              List<String> l = value.get(null);
-
-                              if (l == null)
-                                 l = new ArrayList<String>();
-                              
-                              l.add(token);
-                              value.put(null, l);
-                              imports.put(identifier, value);
-                           }
-                        }
-                     
-                        for (String s : exportPackages)
-                        {
-                           SortedMap<String, Set<Integer>> sm = packages.get(s);
-
-                           if (sm == null)
-                              sm = new TreeMap<String, Set<Integer>>(new VersionComparator());
-
-                           Set<Integer> cls = sm.get(bundleVersion);
-
-                           if (cls == null)
-                              cls = new HashSet<Integer>(1);
-                           
-                           cls.add(identifier);
-                           sm.put(bundleVersion, cls);
-                           packages.put(s, sm);
-                        }
-                     
-                        ArchiveClassLoader acl = 
-                           SecurityActions.createArchiveClassLoader(identifier, url, exportPackages, this);
+                  if (sm == null)
+                     sm = new TreeMap<String, Set<Integer>>(new VersionComparator());
 
-                        classLoaders.put(acl.getId(), acl);
+                  Set<Integer> cls = sm.get(bundleVersion);
 
-                        if (result == null)
-                           result = new HashSet<Integer>();
+                  if (cls == null)
+                     cls = new HashSet<Integer>(1);
+                     
+                  cls.add(identifier);
+                  sm.put(bundleVersion, cls);
+                  packages.put(s, sm);
 
-                        result.add(identifier);
-                        
-                        added = true;
+                  List<Integer> ids = new ArrayList<Integer>(cls.size());
+                  List<Set<Integer>> versions = new ArrayList<Set<Integer>>(sm.values());
+                  for (int i = versions.size() - 1; i >= 0; i--)
+                  {
+                     for (Integer id : versions.get(i))
+                     {
+                        if (!ids.contains(id))
+                           ids.add(id);
                      }
                   }
+                  exporters.put(s, Collections.unmodifiableList(ids));
                }
+               
+               ArchiveClassLoader acl = 
+                  SecurityActions.createArchiveClassLoader(identifier, url, exportPackages, this);
+
+               classLoaders.put(acl.getId(), acl);
+
+               if (result == null)
+                  result = new HashSet<Integer>();
+
+               result.add(identifier);
+                  
+               added = true;
             }
             catch (Throwable t)
             {
                System.out.println("REPO: (" + url + ") =");
                t.printStackTrace(System.out);
             }
-            finally
-            {
-               if (jarFile != null)
-               {
-                  try
-                  {
-                     jarFile.close();
-                  }
-                  catch (IOException ioe)
-                  {
-                     // Ignore
-                  }
-               }
-            }
          }
          
          if (!added)
@@ -390,9 +299,112 @@ class ExportClassLoaderRepository
          }
       }
 
+      index.store();
+
       return result;
    }
 
+   /**
+    * Scan the archives; the archives are divided between the calling thread and
+    * up to one task per processor on the executor
+    * @param urls The urls
+    * @param archives The resulting archive entries; <code>null</code> for urls which aren't archives
+    * @param errors The errors
+    */
+   private void scan(final URL[] urls, final ArchiveIndex.Entry[] archives, final Throwable[] errors)
+   {
+      int tasks = 1;
+
+      if (executor != null)
+         tasks = Math.min(Runtime.getRuntime().availableProcessors(), urls.length);
+
+      if (tasks <= 1)
+      {
+         scan(urls, archives, errors, 0, 1);
+         return;
+      }
+
+      final int stride = tasks;
+      final CountDownLatch latch = new CountDownLatch(tasks - 1);
+
+      for (int t = 1; t < tasks; t++)
+      {
+         final int offset = t;
+         Runnable task = new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  scan(urls, archives, errors, offset, stride);
+               }
+               finally
+               {
+                  latch.countDown();
+               }
+            }
+         };
+
+         try
+         {
+            executor.execute(task);
+         }
+         catch (RejectedExecutionException ree)
+         {
+            task.run();
+         }
+      }
+
+      scan(urls, archives, errors, 0, stride);
+
+      boolean interrupted = false;
+      while (latch.getCount() > 0)
+      {
+         try
+         {
+            latch.await();
+         }
+         catch (InterruptedException ie)
+         {
+            interrupted = true;
+         }
+      }
+
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Scan every stride'th archive starting from an offset
+    * @param urls The urls
+    * @param archives The resulting archive entries
+    * @param errors The errors
+    * @param offset The offset
+    * @param stride The stride
+    */
+   private void scan(URL[] urls, ArchiveIndex.Entry[] archives, Throwable[] errors, int offset, int stride)
+   {
+      for (int i = offset; i < urls.length; i += stride)
+      {
+         URL url = urls[i];
+
+         if ("file".equals(url.getProtocol()))
+         {
+            try
+            {
+               File f = new File(url.toURI());
+
+               if (f.isFile())
+                  archives[i] = index.getEntry(f);
+            }
+            catch (Throwable t)
+            {
+               errors[i] = t;
+            }
+         }
+      }
+   }
+
    /**
     * Get the package name for a class
     * @param name The fully qualified class name
@@ -63,6 +63,31 @@ public class ParentFirstClassLoader extends KernelClassLoader
          // Ignore
       }
 
-      return getParent().loadClass(name);
+      try
+      {
+         return getParent().loadClass(name);
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         addMissingClass(name);
+         throw cnfe;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public URL getResource(String name)
+   {
+      if (isMissingResource(name))
+         return null;
+
+      URL resource = super.getResource(name);
+
+      if (resource == null)
+         addMissingResource(name);
+
+      return resource;
    }
 }
@@ -75,7 +75,15 @@ public class ParentLastClassLoader extends KernelClassLoader
          // Default to parent
       }
 
-      return loadClass(name, false);
+      try
+      {
+         return loadClass(name, false);
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         addMissingClass(name);
+         throw cnfe;
+      }
    }
 
    /**
@@ -122,12 +130,20 @@ public class ParentLastClassLoader extends KernelClassLoader
    @Override
    public URL getResource(String name)
    {
+      if (isMissingResource(name))
+         return null;
+
       URL resource = children.getResource(name);
 
       if (resource != null)
          return resource;
 
-      return super.getResource(name);
+      resource = super.getResource(name);
+
+      if (resource == null)
+         addMissingResource(name);
+
+      return resource;
    }
 
    /**
@@ -136,12 +152,20 @@ public class ParentLastClassLoader extends KernelClassLoader
    @Override
    public InputStream getResourceAsStream(String name)
    {
+      if (isMissingResource(name))
+         return null;
+
       InputStream is = children.getResourceAsStream(name);
 
       if (is != null)
          return is;
 
-      return super.getResourceAsStream(name);
+      is = super.getResourceAsStream(name);
+
+      if (is == null)
+         addMissingResource(name);
+
+      return is;
    }
 
    /**
@@ -22,8 +22,9 @@ package com.github.fungal.impl.netboot;
 
 import com.github.fungal.bootstrap.DependencyType;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A dependency tracker that makes sure that a dependency is only
@@ -31,6 +32,7 @@ import java.util.Set;
  */
 public class DependencyTracker
 {
+   /** The dependencies */
    private Set<DependencyType> dependencies;
 
    /**
@@ -38,7 +40,7 @@ public class DependencyTracker
     */
    public DependencyTracker()
    {
-      dependencies = new HashSet<DependencyType>();
+      dependencies = Collections.newSetFromMap(new ConcurrentHashMap<DependencyType, Boolean>());
    }
 
    /**
@@ -58,17 +60,6 @@ public class DependencyTracker
     */
    public boolean track(DependencyType dependency)
    {
-      synchronized (dependencies)
-      {
-         if (!isTracked(dependency))
-         {
-            dependencies.add(dependency);
-            return true;
-         }
-         else
-         {
-            return false;
-         }
-      }
+      return dependencies.add(dependency);
    }
 }
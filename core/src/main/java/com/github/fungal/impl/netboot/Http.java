@@ -22,27 +22,66 @@ package com.github.fungal.impl.netboot;
 
 import com.github.fungal.spi.netboot.Protocol;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Locale;
 
 /**
- * Support the http:// protocol
+ * Support the http:// protocol.
+ *
+ * An artifact is downloaded into a <code>.part</code> file next to the target,
+ * which is renamed once the transfer is complete. An interrupted transfer is
+ * resumed through a range request the next time the artifact is downloaded.
+ * The artifact is verified against its <code>.sha1</code> checksum when the
+ * server provides one.
  */
 public class Http implements Protocol
 {
+   /** The suffix of partial downloads */
+   private static final String PART_SUFFIX = ".part";
+
+   /** The size of each transfer */
+   private static final long TRANSFER_SIZE = 1024L * 1024L;
+
+   /** Verify checksums */
+   private boolean checksum;
+
    /**
     * Constructor
     */
    public Http()
    {
+      this.checksum = true;
+   }
+
+   /**
+    * Set if the artifacts should be verified against their .sha1 checksum; default <code>true</code>
+    * @param v The value
+    */
+   public void setChecksum(boolean v)
+   {
+      this.checksum = v;
+   }
+
+   /**
+    * Get if the artifacts are verified against their .sha1 checksum
+    * @return The value
+    */
+   public boolean isChecksum()
+   {
+      return checksum;
    }
 
    /**
@@ -53,27 +92,22 @@ public class Http implements Protocol
       boolean redirect = HttpURLConnection.getFollowRedirects();
       HttpURLConnection.setFollowRedirects(true);
 
-      InputStream is = null;
-      OutputStream os = null;
+      File part = new File(target.getParentFile(), target.getName() + PART_SUFFIX);
       try
       {
-         URL u = new URL(path);
-         URLConnection connection = u.openConnection();
-
-         connection.connect();
+         if (!transfer(path, part))
+            return false;
 
-         is = new BufferedInputStream(connection.getInputStream(), 8192);
-         os = new BufferedOutputStream(new FileOutputStream(target), 8192);
-
-         int b;
-         while ((b = is.read()) != -1)
+         if (checksum && !verify(path, part))
          {
-            os.write(b);
+            part.delete();
+            return false;
          }
 
-         os.flush();
+         if (target.exists() && !target.delete())
+            return false;
 
-         return true;
+         return part.renameTo(target);
       }
       catch (Throwable t)
       {
@@ -81,33 +115,305 @@ public class Http implements Protocol
       }
       finally
       {
-         if (is != null)
+         HttpURLConnection.setFollowRedirects(redirect);
+      }
+
+      return false;
+   }
+
+   /**
+    * Transfer a resource into a partial file; an existing partial file is resumed
+    * @param path The path
+    * @param part The partial file
+    * @return True if the complete resource was transferred; otherwise false
+    * @exception IOException Thrown if an error occurs
+    */
+   private boolean transfer(String path, File part) throws IOException
+   {
+      long offset = part.exists() ? part.length() : 0L;
+
+      Response response = open(path, offset);
+
+      if (response.getStatus() == 416)
+      {
+         // The partial file doesn't match the resource; start over
+         response.close();
+         part.delete();
+
+         return offset > 0 && transfer(path, part);
+      }
+
+      if (response.getStream() == null)
+      {
+         response.close();
+         return false;
+      }
+
+      if (response.getStatus() != HttpURLConnection.HTTP_PARTIAL)
+         offset = 0L;
+
+      long length = response.getContentLength();
+
+      ReadableByteChannel in = null;
+      RandomAccessFile raf = null;
+      try
+      {
+         in = Channels.newChannel(response.getStream());
+         raf = new RandomAccessFile(part, "rw");
+
+         FileChannel out = raf.getChannel();
+         out.truncate(offset);
+
+         long position = offset;
+         long n;
+         while ((n = out.transferFrom(in, position, TRANSFER_SIZE)) > 0)
+         {
+            position += n;
+         }
+
+         out.force(false);
+
+         return length < 0 || position - offset == length;
+      }
+      finally
+      {
+         if (in != null)
          {
             try
             {
-               is.close();
+               in.close();
             }
             catch (IOException ignore)
             {
                // Ignore
             }
          }
-         if (os != null)
+         if (raf != null)
          {
             try
             {
-               os.close();
+               raf.close();
             }
             catch (IOException ignore)
             {
                // Ignore
             }
          }
+      }
+   }
 
-         HttpURLConnection.setFollowRedirects(redirect);
+   /**
+    * Verify a downloaded file against the .sha1 checksum of the resource
+    * @param path The path of the resource
+    * @param file The file
+    * @return False if the checksum doesn't match; otherwise true
+    * @exception Exception Thrown if an error occurs
+    */
+   private boolean verify(String path, File file) throws Exception
+   {
+      if (path.endsWith(".sha1") || path.endsWith(".md5"))
+         return true;
+
+      String expected = getChecksum(path + ".sha1");
+
+      if (expected == null)
+         return true;
+
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+
+      FileInputStream fis = null;
+      try
+      {
+         fis = new FileInputStream(file);
+         FileChannel fc = fis.getChannel();
+
+         ByteBuffer buffer = ByteBuffer.allocate(65536);
+         while (fc.read(buffer) != -1)
+         {
+            buffer.flip();
+            md.update(buffer);
+            buffer.clear();
+         }
+      }
+      finally
+      {
+         if (fis != null)
+         {
+            try
+            {
+               fis.close();
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+         }
       }
 
-      return false;
+      StringBuilder sb = new StringBuilder(40);
+      for (byte b : md.digest())
+      {
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+         sb.append(Character.forDigit(b & 0xf, 16));
+      }
+
+      return sb.toString().equals(expected);
+   }
+
+   /**
+    * Get a checksum from the server
+    * @param path The path of the checksum
+    * @return The checksum in lower case; <code>null</code> if the server doesn't provide it
+    */
+   private String getChecksum(String path)
+   {
+      Response response = null;
+      try
+      {
+         response = open(path, 0L);
+
+         if (response.getStatus() != HttpURLConnection.HTTP_OK || response.getStream() == null)
+            return null;
+
+         InputStream is = response.getStream();
+
+         ByteArrayOutputStream os = new ByteArrayOutputStream(64);
+         byte[] buffer = new byte[256];
+         int n;
+         while ((n = is.read(buffer)) != -1 && os.size() < 4096)
+         {
+            os.write(buffer, 0, n);
+         }
+
+         // The checksum may be followed by the name of the file
+         String value = os.toString("US-ASCII").trim();
+         int index = 0;
+         while (index < value.length() && !Character.isWhitespace(value.charAt(index)))
+         {
+            index++;
+         }
+
+         value = value.substring(0, index).toLowerCase(Locale.US);
+
+         if (value.length() != 40)
+            return null;
+
+         return value;
+      }
+      catch (Throwable t)
+      {
+         return null;
+      }
+      finally
+      {
+         if (response != null)
+            response.close();
+      }
+   }
+
+   /**
+    * Open a resource
+    * @param path The path
+    * @param offset The offset to resume from; <code>0</code> for the entire resource
+    * @return The response
+    * @exception IOException Thrown if an error occurs
+    */
+   protected Response open(String path, long offset) throws IOException
+   {
+      URLConnection connection = new URL(path).openConnection();
+
+      if (offset > 0 && connection instanceof HttpURLConnection)
+         connection.setRequestProperty("Range", "bytes=" + offset + "-");
+
+      connection.connect();
+
+      int status = HttpURLConnection.HTTP_OK;
+
+      if (connection instanceof HttpURLConnection)
+      {
+         status = ((HttpURLConnection)connection).getResponseCode();
+
+         if (status >= 400)
+         {
+            ((HttpURLConnection)connection).disconnect();
+            return new Response(status, -1L, null);
+         }
+      }
+
+      return new Response(status, connection.getContentLength(), connection.getInputStream());
+   }
+
+   /**
+    * A response for a resource
+    */
+   protected static class Response
+   {
+      /** The status code */
+      private int status;
+
+      /** The content length */
+      private long contentLength;
+
+      /** The stream */
+      private InputStream stream;
+
+      /**
+       * Constructor
+       * @param status The status code
+       * @param contentLength The content length; <code>-1</code> if unknown
+       * @param stream The stream; <code>null</code> if the response doesn't have content
+       */
+      protected Response(int status, long contentLength, InputStream stream)
+      {
+         this.status = status;
+         this.contentLength = contentLength;
+         this.stream = stream;
+      }
+
+      /**
+       * Get the status code
+       * @return The value
+       */
+      public int getStatus()
+      {
+         return status;
+      }
+
+      /**
+       * Get the content length
+       * @return The value; <code>-1</code> if unknown
+       */
+      public long getContentLength()
+      {
+         return contentLength;
+      }
+
+      /**
+       * Get the stream
+       * @return The value; <code>null</code> if the response doesn't have content
+       */
+      public InputStream getStream()
+      {
+         return stream;
+      }
+
+      /**
+       * Close the response
+       */
+      public void close()
+      {
+         if (stream != null)
+         {
+            try
+            {
+               stream.close();
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+         }
+      }
    }
 
    /**
@@ -25,20 +25,43 @@ import com.github.fungal.bootstrap.ServerType;
 import com.github.fungal.spi.netboot.Protocol;
 
 import java.io.File;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Represent a Maven repository
+ * Represent a Maven repository.
+ *
+ * The dependencies of a POM are resolved in parallel on the executor, and
+ * dependencies of type <code>pom</code> are walked recursively, so the entire
+ * transitive closure is resolved as a graph walk. The thread resolving a POM
+ * resolves the dependencies which haven't been picked up by the executor yet
+ * itself, so the walk can't starve a bounded executor.
  */
 public class Maven extends AbstractRepository
 {
+   /** The executor; <code>null</code> if the dependencies are resolved by the calling thread */
+   private Executor executor;
+
    /**
     * Constructor
     */
    public Maven()
    {
+      this(null);
+   }
+
+   /**
+    * Constructor
+    * @param executor The executor used to resolve the dependencies of a POM
+    */
+   public Maven(Executor executor)
+   {
+      this.executor = executor;
    }
 
    /**
@@ -69,6 +92,16 @@ public class Maven extends AbstractRepository
       }
    }
 
+   /**
+    * Download a POM and resolve its dependencies
+    * @param servers The servers
+    * @param protocolMap The protocols
+    * @param dependency The dependency
+    * @param repository The repository
+    * @param tracker The dependency tracker
+    * @return The list of dependencies downloaded
+    * @exception ResolveException Thrown in case of an error
+    */
    private List<DependencyType> downloadPom(List<ServerType> servers,
                                             Map<String, Protocol> protocolMap,
                                             DependencyType dependency,
@@ -81,28 +114,161 @@ public class Maven extends AbstractRepository
       if (result.size() == 0)
          return result;
 
+      List<DependencyType> dependencies = null;
       try
       {
          MavenUnmarshaller unmarshaller = new MavenUnmarshaller();
          File f = new File(repository, getPath(dependency));
-         List<DependencyType> dependencies = unmarshaller.unmarshal(f.toURI().toURL());         
+         dependencies = unmarshaller.unmarshal(f.toURI().toURL());
+      }
+      catch (Throwable t)
+      {
+         throw new ResolveException("The dependency couldn't be parsed", dependency);
+      }
+
+      if (dependencies != null && dependencies.size() > 0)
+         result.addAll(resolveAll(servers, protocolMap, dependencies, repository, tracker));
 
-         if (dependencies != null && dependencies.size() > 0)
+      return result;
+   }
+
+   /**
+    * Resolve a list of dependencies in parallel
+    * @param servers The servers
+    * @param protocolMap The protocols
+    * @param dependencies The dependencies
+    * @param repository The repository
+    * @param tracker The dependency tracker
+    * @return The list of dependencies downloaded
+    * @exception ResolveException Thrown in case of an error
+    */
+   private List<DependencyType> resolveAll(final List<ServerType> servers,
+                                           final Map<String, Protocol> protocolMap,
+                                           final List<DependencyType> dependencies,
+                                           final File repository,
+                                           final DependencyTracker tracker)
+      throws ResolveException
+   {
+      final CountDownLatch latch = new CountDownLatch(dependencies.size());
+      final AtomicBoolean[] claimed = new AtomicBoolean[dependencies.size()];
+      final List<List<DependencyType>> results =
+         Collections.synchronizedList(new ArrayList<List<DependencyType>>(dependencies.size()));
+      final ResolveException[] errors = new ResolveException[dependencies.size()];
+
+      for (int i = 0; i < dependencies.size(); i++)
+      {
+         claimed[i] = new AtomicBoolean(false);
+         results.add(null);
+      }
+
+      if (executor != null && dependencies.size() > 1)
+      {
+         for (int i = 1; i < dependencies.size(); i++)
          {
-            Iterator<DependencyType> dit = dependencies.iterator();
-            while (dit.hasNext())
+            final int index = i;
+            try
+            {
+               executor.execute(new Runnable()
+               {
+                  public void run()
+                  {
+                     if (claimed[index].compareAndSet(false, true))
+                        resolveOne(servers, protocolMap, dependencies, repository, tracker,
+                                   index, results, errors, latch);
+                  }
+               });
+            }
+            catch (Throwable t)
             {
-               DependencyType dep = dit.next();
-               List<DependencyType> l = downloadArtifact(servers, protocolMap, dep, repository, tracker);
-               result.addAll(l);
+               // The dependency is resolved by this thread
             }
          }
+      }
 
-         return result;
+      // Resolve the dependencies that haven't been picked up by the executor
+      for (int i = 0; i < dependencies.size(); i++)
+      {
+         if (claimed[i].compareAndSet(false, true))
+            resolveOne(servers, protocolMap, dependencies, repository, tracker,
+                       i, results, errors, latch);
+      }
+
+      boolean interrupted = false;
+      while (latch.getCount() > 0)
+      {
+         try
+         {
+            latch.await();
+         }
+         catch (InterruptedException ie)
+         {
+            interrupted = true;
+         }
+      }
+
+      if (interrupted)
+         Thread.currentThread().interrupt();
+
+      List<DependencyType> result = new ArrayList<DependencyType>(dependencies.size());
+      for (int i = 0; i < dependencies.size(); i++)
+      {
+         synchronized (errors)
+         {
+            if (errors[i] != null)
+               throw errors[i];
+         }
+
+         List<DependencyType> l = results.get(i);
+         if (l != null)
+            result.addAll(l);
+      }
+
+      return result;
+   }
+
+   /**
+    * Resolve a single dependency of a list
+    * @param servers The servers
+    * @param protocolMap The protocols
+    * @param dependencies The dependencies
+    * @param repository The repository
+    * @param tracker The dependency tracker
+    * @param index The index of the dependency
+    * @param results The results
+    * @param errors The errors
+    * @param latch The latch
+    */
+   private void resolveOne(List<ServerType> servers,
+                           Map<String, Protocol> protocolMap,
+                           List<DependencyType> dependencies,
+                           File repository,
+                           DependencyTracker tracker,
+                           int index,
+                           List<List<DependencyType>> results,
+                           ResolveException[] errors,
+                           CountDownLatch latch)
+   {
+      try
+      {
+         results.set(index, resolve(servers, protocolMap, dependencies.get(index), repository, tracker));
+      }
+      catch (ResolveException re)
+      {
+         synchronized (errors)
+         {
+            errors[index] = re;
+         }
       }
       catch (Throwable t)
       {
-         throw new ResolveException("The dependency couldn't be parsed", dependency);
+         synchronized (errors)
+         {
+            errors[index] = new ResolveException("Exception while resolving dependencies", t);
+         }
+      }
+      finally
+      {
+         latch.countDown();
       }
    }
 }
@@ -20,7 +20,6 @@
 
 package com.github.fungal.impl.netboot;
 
-import com.github.fungal.api.util.FileUtil;
 import com.github.fungal.api.util.Injection;
 import com.github.fungal.bootstrap.Bootstrap;
 import com.github.fungal.bootstrap.DependencyType;
@@ -29,21 +28,73 @@ import com.github.fungal.bootstrap.ProtocolType;
 import com.github.fungal.bootstrap.ServerType;
 import com.github.fungal.spi.netboot.Protocol;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 /**
- * Netboot functionality
+ * Netboot functionality.
+ *
+ * The artifacts installed for a set of dependencies are recorded in a resolution
+ * index in the repository directory, keyed by a hash of the dependencies and the
+ * servers. When the bootstrap descriptor is unchanged the artifacts are installed
+ * straight from the index without resolving any POM.
+ *
+ * Artifacts are installed as hard links to the repository when the platform
+ * supports it and the repository and the root are on the same file system;
+ * otherwise they are copied. Artifacts which are already installed with the
+ * same size and modification time are left untouched.
  */
 public class Netboot
 {
+   /** The directory of the resolution index */
+   private static final String INDEX_DIRECTORY = ".index";
+
+   /** The suffix of the resolution index files */
+   private static final String INDEX_SUFFIX = ".index";
+
+   /** The size of each transfer */
+   private static final long TRANSFER_SIZE = 8L * 1024L * 1024L;
+
+   /** File.toPath(); <code>null</code> if not supported */
+   private static Method toPath;
+
+   /** Files.createLink(Path, Path); <code>null</code> if not supported */
+   private static Method createLink;
+
+   static
+   {
+      try
+      {
+         Class<?> pathClass = Class.forName("java.nio.file.Path");
+         Class<?> filesClass = Class.forName("java.nio.file.Files");
+
+         toPath = File.class.getMethod("toPath");
+         createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+      }
+      catch (Throwable t)
+      {
+         toPath = null;
+         createLink = null;
+      }
+   }
+
    /**
     * Constructor
     */
@@ -90,6 +141,11 @@ public class Netboot
             List<ProtocolType> protocols = bootstrap.getProtocols().getProtocol();
             List<ServerType> servers = bootstrap.getServers().getServer();
 
+            File index = getIndexFile(repositoryDirectory, dependencies, servers);
+
+            if (installFromIndex(index, repositoryDirectory, rootDirectory))
+               return true;
+
             Map<String, Protocol> protocolMap = 
                new HashMap<String, Protocol>(protocols.size() != 0 ? protocols.size() : 1);
 
@@ -127,7 +183,7 @@ public class Netboot
             {
                DependencyResolver dependencyResolver = 
                   new DependencyResolver(servers, protocolMap, dependency, repositoryDirectory, 
-                                         rootDirectory, tracker, dependencyLatch);
+                                         rootDirectory, tracker, dependencyLatch, executorService);
 
                dependencyResolvers.add(dependencyResolver);
 
@@ -136,6 +192,8 @@ public class Netboot
 
             dependencyLatch.await();
 
+            List<File[]> installed = new ArrayList<File[]>();
+
             Iterator<DependencyResolver> it = dependencyResolvers.iterator();
             while (it.hasNext())
             {
@@ -144,8 +202,12 @@ public class Netboot
                {
                   throw resolver.getResolveException();
                }
+
+               installed.addAll(resolver.getInstalled());
             }
 
+            writeIndex(index, repositoryDirectory, rootDirectory, installed);
+
             return true;
          }
          catch (InterruptedException ie)
@@ -162,6 +224,343 @@ public class Netboot
       return false;
    }
 
+   /**
+    * Get the resolution index file for a set of dependencies
+    * @param repositoryDirectory The repository directory
+    * @param dependencies The dependencies
+    * @param servers The servers
+    * @return The file
+    * @exception Exception Thrown if the key can't be calculated
+    */
+   private static File getIndexFile(File repositoryDirectory,
+                                    List<DependencyType> dependencies,
+                                    List<ServerType> servers)
+      throws Exception
+   {
+      StringBuilder sb = new StringBuilder();
+
+      for (DependencyType dependency : dependencies)
+      {
+         sb = sb.append(dependency.toString()).append(",Target=").append(dependency.getTarget()).append('\n');
+      }
+
+      for (ServerType server : servers)
+      {
+         sb = sb.append("Server[").append(server.getProtocol()).append(",").append(server.getPattern());
+         sb = sb.append(",").append(server.getValue()).append("]\n");
+      }
+
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      byte[] digest = md.digest(sb.toString().getBytes("UTF-8"));
+
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest)
+      {
+         key = key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+
+      return new File(new File(repositoryDirectory, INDEX_DIRECTORY), key.toString() + INDEX_SUFFIX);
+   }
+
+   /**
+    * Install the artifacts recorded in a resolution index
+    * @param index The index file
+    * @param repositoryDirectory The repository directory
+    * @param rootDirectory The root directory
+    * @return True if the artifacts were installed; false if they need to be resolved
+    */
+   private static boolean installFromIndex(File index, File repositoryDirectory, File rootDirectory)
+   {
+      if (!index.exists())
+         return false;
+
+      List<File[]> entries = new ArrayList<File[]>();
+      BufferedReader reader = null;
+      try
+      {
+         reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+
+         String line = reader.readLine();
+         while (line != null)
+         {
+            if (!line.trim().equals(""))
+            {
+               int tab = line.indexOf('\t');
+               if (tab == -1)
+                  return false;
+
+               File src = new File(repositoryDirectory, line.substring(0, tab).replace('/', File.separatorChar));
+               File dest = new File(rootDirectory, line.substring(tab + 1).replace('/', File.separatorChar));
+
+               if (!src.exists())
+                  return false;
+
+               entries.add(new File[] {src, dest});
+            }
+
+            line = reader.readLine();
+         }
+      }
+      catch (IOException ioe)
+      {
+         return false;
+      }
+      finally
+      {
+         if (reader != null)
+         {
+            try
+            {
+               reader.close();
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+         }
+      }
+
+      if (entries.size() == 0)
+         return false;
+
+      try
+      {
+         for (File[] entry : entries)
+         {
+            install(entry[0], entry[1]);
+         }
+      }
+      catch (Exception e)
+      {
+         return false;
+      }
+
+      return true;
+   }
+
+   /**
+    * Write a resolution index; the index is written to a temporary file which
+    * replaces the index, so a concurrent boot never sees a partial index
+    * @param index The index file
+    * @param repositoryDirectory The repository directory
+    * @param rootDirectory The root directory
+    * @param installed The installed artifacts; pairs of the source and the destination
+    */
+   private static void writeIndex(File index, File repositoryDirectory, File rootDirectory,
+                                  List<File[]> installed)
+   {
+      if (installed.size() == 0)
+         return;
+
+      if (!index.getParentFile().exists() && !index.getParentFile().mkdirs())
+         return;
+
+      File tmp = new File(index.getParentFile(), index.getName() + "." + Thread.currentThread().getId() +
+                          "." + System.nanoTime());
+      Writer writer = null;
+      try
+      {
+         writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+         for (File[] entry : installed)
+         {
+            String src = getRelativePath(repositoryDirectory, entry[0]);
+            String dest = getRelativePath(rootDirectory, entry[1]);
+
+            if (src == null || dest == null)
+            {
+               writer.close();
+               writer = null;
+               tmp.delete();
+               return;
+            }
+
+            writer.write(src);
+            writer.write('\t');
+            writer.write(dest);
+            writer.write('\n');
+         }
+
+         writer.close();
+         writer = null;
+
+         if (index.exists() && !index.delete())
+         {
+            tmp.delete();
+            return;
+         }
+
+         if (!tmp.renameTo(index))
+            tmp.delete();
+      }
+      catch (IOException ioe)
+      {
+         tmp.delete();
+      }
+      finally
+      {
+         if (writer != null)
+         {
+            try
+            {
+               writer.close();
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+            tmp.delete();
+         }
+      }
+   }
+
+   /**
+    * Get the path of a file relative to a directory
+    * @param directory The directory
+    * @param file The file
+    * @return The path using '/' as separator; <code>null</code> if the file isn't inside the directory
+    */
+   private static String getRelativePath(File directory, File file)
+   {
+      String d = directory.getAbsolutePath();
+      String f = file.getAbsolutePath();
+
+      if (!d.endsWith(File.separator))
+         d = d + File.separator;
+
+      if (!f.startsWith(d))
+         return null;
+
+      return f.substring(d.length()).replace(File.separatorChar, '/');
+   }
+
+   /**
+    * Install an artifact
+    * @param src The source
+    * @param dest The destination
+    * @exception IOException Thrown if the artifact can't be installed
+    */
+   static void install(File src, File dest) throws IOException
+   {
+      if (!src.exists())
+         throw new IOException("Source " + src.getAbsolutePath() + " doesn't exist");
+
+      if (dest.exists())
+      {
+         if (dest.length() == src.length() && dest.lastModified() == src.lastModified())
+            return;
+
+         if (!dest.delete())
+            throw new IOException("File " + dest.getAbsolutePath() + " couldn't be deleted");
+      }
+      else if (dest.getParentFile() != null && !dest.getParentFile().exists())
+      {
+         if (!dest.getParentFile().mkdirs())
+            throw new IOException("Directory " + dest.getParentFile().getAbsolutePath() + 
+                                  " couldn't be created");
+      }
+
+      if (link(src, dest))
+         return;
+
+      copy(src, dest);
+
+      dest.setLastModified(src.lastModified());
+   }
+
+   /**
+    * Create a hard link to a file
+    * @param src The source
+    * @param dest The destination
+    * @return True if the link was created; otherwise false
+    */
+   private static boolean link(File src, File dest)
+   {
+      if (createLink == null)
+         return false;
+
+      try
+      {
+         createLink.invoke(null, toPath.invoke(dest), toPath.invoke(src));
+         return true;
+      }
+      catch (Throwable t)
+      {
+         // Different file systems, or links not supported by the file system
+         return false;
+      }
+   }
+
+   /**
+    * Copy a file
+    * @param src The source
+    * @param dest The destination
+    * @exception IOException Thrown if the file can't be copied
+    */
+   private static void copy(File src, File dest) throws IOException
+   {
+      FileInputStream fis = null;
+      FileOutputStream fos = null;
+      try
+      {
+         fis = new FileInputStream(src);
+         fos = new FileOutputStream(dest);
+
+         FileChannel in = fis.getChannel();
+         FileChannel out = fos.getChannel();
+
+         long size = in.size();
+         long position = 0;
+         while (position < size)
+         {
+            position += in.transferTo(position, Math.min(TRANSFER_SIZE, size - position), out);
+         }
+      }
+      catch (IOException ioe)
+      {
+         if (fos != null)
+         {
+            try
+            {
+               fos.close();
+               fos = null;
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+         }
+         dest.delete();
+
+         throw ioe;
+      }
+      finally
+      {
+         if (fis != null)
+         {
+            try
+            {
+               fis.close();
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+         }
+         if (fos != null)
+         {
+            try
+            {
+               fos.close();
+            }
+            catch (IOException ignore)
+            {
+               // Ignore
+            }
+         }
+      }
+   }
+
    /**
     * Dependency resolver
     */
@@ -188,6 +587,12 @@ public class Netboot
       /** The latch */
       private CountDownLatch latch;
 
+      /** The executor */
+      private Executor executor;
+
+      /** The installed artifacts */
+      private List<File[]> installed;
+
       /** ResolveException */
       private ResolveException resolveException;
 
@@ -200,6 +605,7 @@ public class Netboot
        * @param rootDirectory The root directory
        * @param tracker The dependency tracker
        * @param latch The latch
+       * @param executor The executor used to resolve transitive dependencies
        */
       public DependencyResolver(final List<ServerType> servers,
                                 final Map<String, Protocol> protocolMap,
@@ -207,7 +613,8 @@ public class Netboot
                                 final File repositoryDirectory,
                                 final File rootDirectory,
                                 final DependencyTracker tracker,
-                                final CountDownLatch latch)
+                                final CountDownLatch latch,
+                                final Executor executor)
       {
          this.servers = servers;
          this.protocolMap = protocolMap;
@@ -216,6 +623,8 @@ public class Netboot
          this.rootDirectory = rootDirectory;
          this.tracker = tracker;
          this.latch = latch;
+         this.executor = executor;
+         this.installed = new ArrayList<File[]>();
          this.resolveException = null;
       }
 
@@ -226,7 +635,7 @@ public class Netboot
       {
          try
          {
-            Repository repository = new Maven();
+            Repository repository = new Maven(executor);
             List<DependencyType> artifacts = repository.resolve(servers, 
                                                                 protocolMap, 
                                                                 dependency, 
@@ -235,8 +644,6 @@ public class Netboot
 
             if (artifacts != null)
             {
-               FileUtil fileUtil = new FileUtil();
-
                for (DependencyType dependency : artifacts)
                {
                   File src = repository.getFile(dependency, repositoryDirectory);
@@ -244,14 +651,8 @@ public class Netboot
                                        dependency.getTarget().replace('/', File.separatorChar) + File.separatorChar +
                                        dependency.getArtifact() + "." + dependency.getExt());
 
-                  if (dest.getParentFile() != null && !dest.getParentFile().exists())
-                  {
-                     if (!dest.getParentFile().mkdirs())
-                        throw new ResolveException("Directory " + dest.getParentFile().getAbsolutePath() + 
-                                                   " couldn't be created");
-                  }
-                  
-                  fileUtil.copy(src, dest);
+                  install(src, dest);
+                  installed.add(new File[] {src, dest});
                }
             }
          }
@@ -267,6 +668,15 @@ public class Netboot
          latch.countDown();
       }
 
+      /**
+       * Get the installed artifacts
+       * @return Pairs of the source and the destination
+       */
+      public List<File[]> getInstalled()
+      {
+         return installed;
+      }
+
       /**
        * Get resolve exception
        * @return null if no error; otherwise the exception
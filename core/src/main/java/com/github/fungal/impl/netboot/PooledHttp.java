@@ -0,0 +1,936 @@
+/*
+ * The Fungal kernel project
+ * Copyright (C) 2012
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.github.fungal.impl.netboot;
+
+import com.github.fungal.spi.netboot.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Support the http:// protocol over persistent connections.
+ *
+ * The connections to each server are kept alive and reused by the downloads
+ * of all the artifacts resolved through the protocol definition, and the
+ * number of concurrent downloads from a server is limited by the
+ * <code>maxConnectionsPerHost</code> property.
+ *
+ * The certificate of a https server is verified against the host name through
+ * the endpoint identification of the platform; when the platform doesn't support
+ * it, https resources are downloaded through <code>HttpsURLConnection</code>
+ * without pooling. Resources
+ * which the default <code>ProxySelector</code> routes through a proxy (for
+ * example through the <code>http.proxyHost</code> and <code>https.proxyHost</code>
+ * system properties) are downloaded through <code>HttpURLConnection</code>
+ * without pooling.
+ */
+public class PooledHttp extends Http
+{
+   /** The maximum number of redirects followed */
+   private static final int MAX_REDIRECTS = 5;
+
+   /** SSLParameters.setEndpointIdentificationAlgorithm(String); <code>null</code> if not supported */
+   private static Method setEndpointIdentificationAlgorithm;
+
+   static
+   {
+      try
+      {
+         setEndpointIdentificationAlgorithm =
+            SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+      }
+      catch (Throwable t)
+      {
+         setEndpointIdentificationAlgorithm = null;
+      }
+   }
+
+   /** The maximum number of connections per host */
+   private int maxConnectionsPerHost;
+
+   /** The time an idle connection is kept in the pool */
+   private long idleTimeout;
+
+   /** The connect timeout */
+   private int connectTimeout;
+
+   /** The read timeout */
+   private int readTimeout;
+
+   /** The hosts; shared between the clones */
+   private ConcurrentMap<String, Host> hosts;
+
+   /**
+    * Constructor
+    */
+   public PooledHttp()
+   {
+      super();
+      this.maxConnectionsPerHost = 4;
+      this.idleTimeout = 60000L;
+      this.connectTimeout = 30000;
+      this.readTimeout = 60000;
+      this.hosts = new ConcurrentHashMap<String, Host>();
+   }
+
+   /**
+    * Set the maximum number of concurrent connections to a host; default <code>4</code>
+    * @param v The value
+    */
+   public void setMaxConnectionsPerHost(int v)
+   {
+      if (v < 1)
+         throw new IllegalArgumentException("MaxConnectionsPerHost is less than 1");
+
+      this.maxConnectionsPerHost = v;
+   }
+
+   /**
+    * Get the maximum number of concurrent connections to a host
+    * @return The value
+    */
+   public int getMaxConnectionsPerHost()
+   {
+      return maxConnectionsPerHost;
+   }
+
+   /**
+    * Set the time in milliseconds an idle connection is kept in the pool; default <code>60000</code>
+    * @param v The value
+    */
+   public void setIdleTimeout(long v)
+   {
+      this.idleTimeout = v;
+   }
+
+   /**
+    * Get the time in milliseconds an idle connection is kept in the pool
+    * @return The value
+    */
+   public long getIdleTimeout()
+   {
+      return idleTimeout;
+   }
+
+   /**
+    * Set the connect timeout in milliseconds; default <code>30000</code>
+    * @param v The value
+    */
+   public void setConnectTimeout(int v)
+   {
+      this.connectTimeout = v;
+   }
+
+   /**
+    * Get the connect timeout in milliseconds
+    * @return The value
+    */
+   public int getConnectTimeout()
+   {
+      return connectTimeout;
+   }
+
+   /**
+    * Set the read timeout in milliseconds; default <code>60000</code>
+    * @param v The value
+    */
+   public void setReadTimeout(int v)
+   {
+      this.readTimeout = v;
+   }
+
+   /**
+    * Get the read timeout in milliseconds
+    * @return The value
+    */
+   public int getReadTimeout()
+   {
+      return readTimeout;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected Response open(String path, long offset) throws IOException
+   {
+      URL url = new URL(path);
+
+      for (int redirect = 0; redirect <= MAX_REDIRECTS; redirect++)
+      {
+         String protocol = url.getProtocol().toLowerCase(Locale.US);
+
+         if ((!"http".equals(protocol) && !"https".equals(protocol)) || isProxied(url) ||
+             ("https".equals(protocol) && setEndpointIdentificationAlgorithm == null))
+            return super.open(url.toExternalForm(), offset);
+
+         Host host = getHost(url);
+
+         try
+         {
+            host.acquire();
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + host.getKey());
+         }
+
+         Body body = null;
+         try
+         {
+            body = request(host, url, offset);
+         }
+         finally
+         {
+            if (body == null)
+               host.release();
+         }
+
+         int status = body.getStatus();
+
+         if (status >= 300 && status < 400 && body.getLocation() != null)
+         {
+            body.drain();
+            url = new URL(url, body.getLocation());
+         }
+         else if (status >= 400)
+         {
+            body.drain();
+            return new Response(status, -1L, null);
+         }
+         else
+         {
+            return new Response(status, body.getLength(), body);
+         }
+      }
+
+      throw new IOException("Too many redirects: " + path);
+   }
+
+   /**
+    * Is the URL routed through a proxy
+    * @param url The URL
+    * @return True if a proxy is used; otherwise false
+    */
+   private boolean isProxied(URL url)
+   {
+      ProxySelector selector = ProxySelector.getDefault();
+      if (selector == null)
+         return false;
+
+      try
+      {
+         List<Proxy> proxies = selector.select(url.toURI());
+         if (proxies == null)
+            return false;
+
+         for (Proxy proxy : proxies)
+         {
+            if (proxy.type() != Proxy.Type.DIRECT)
+               return true;
+         }
+
+         return false;
+      }
+      catch (Throwable t)
+      {
+         return true;
+      }
+   }
+
+   /**
+    * Send a request over a pooled connection; a stale connection is replaced by a new one
+    * @param host The host
+    * @param url The URL
+    * @param offset The offset to resume from; <code>0</code> for the entire resource
+    * @return The body of the response
+    * @exception IOException Thrown if an error occurs
+    */
+   private Body request(Host host, URL url, long offset) throws IOException
+   {
+      Connection connection = host.poll(idleTimeout);
+      if (connection != null)
+      {
+         try
+         {
+            return connection.request(host, url, offset);
+         }
+         catch (IOException ioe)
+         {
+            // The server closed the connection while it was idle
+            connection.close();
+         }
+      }
+
+      connection = new Connection(url, connectTimeout, readTimeout);
+      try
+      {
+         return connection.request(host, url, offset);
+      }
+      catch (IOException ioe)
+      {
+         connection.close();
+         throw ioe;
+      }
+   }
+
+   /**
+    * Get the host for an URL
+    * @param url The URL
+    * @return The host
+    */
+   private Host getHost(URL url)
+   {
+      int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+      String key = url.getProtocol().toLowerCase(Locale.US) + "://" +
+         url.getHost().toLowerCase(Locale.US) + ":" + port;
+
+      Host host = hosts.get(key);
+      if (host == null)
+      {
+         host = new Host(key, maxConnectionsPerHost);
+         Host existing = hosts.putIfAbsent(key, host);
+         if (existing != null)
+            host = existing;
+      }
+
+      return host;
+   }
+
+   /**
+    * Clone the protocol implementation; the clone shares the connection pool
+    * @return A copy of the implementation
+    * @exception CloneNotSupportedException Thrown if the copy operation isn't supported
+    */
+   @Override
+   public Protocol clone() throws CloneNotSupportedException
+   {
+      PooledHttp h = (PooledHttp)super.clone();
+      h.hosts = hosts;
+
+      return h;
+   }
+
+   /**
+    * The idle connections and the permits for a host
+    */
+   static class Host
+   {
+      /** The key */
+      private String key;
+
+      /** The permits */
+      private Semaphore permits;
+
+      /** The idle connections */
+      private Queue<Connection> idle;
+
+      /**
+       * Constructor
+       * @param key The key
+       * @param max The maximum number of concurrent connections
+       */
+      Host(String key, int max)
+      {
+         this.key = key;
+         this.permits = new Semaphore(max, true);
+         this.idle = new ConcurrentLinkedQueue<Connection>();
+      }
+
+      /**
+       * Get the key
+       * @return The value
+       */
+      String getKey()
+      {
+         return key;
+      }
+
+      /**
+       * Acquire a permit
+       * @exception InterruptedException Thrown if interrupted
+       */
+      void acquire() throws InterruptedException
+      {
+         permits.acquire();
+      }
+
+      /**
+       * Release a permit
+       */
+      void release()
+      {
+         permits.release();
+      }
+
+      /**
+       * Get an idle connection; connections idle for too long are closed
+       * @param timeout The idle timeout
+       * @return The connection; <code>null</code> if none is available
+       */
+      Connection poll(long timeout)
+      {
+         long now = System.currentTimeMillis();
+         Connection connection = idle.poll();
+
+         while (connection != null)
+         {
+            if (now - connection.getLastUsed() < timeout && !connection.isClosed())
+               return connection;
+
+            connection.close();
+            connection = idle.poll();
+         }
+
+         return null;
+      }
+
+      /**
+       * Return a connection to the pool
+       * @param connection The connection
+       */
+      void offer(Connection connection)
+      {
+         connection.touch();
+         idle.offer(connection);
+      }
+   }
+
+   /**
+    * A connection to a host
+    */
+   static class Connection
+   {
+      /** The socket */
+      private Socket socket;
+
+      /** The input stream */
+      private InputStream in;
+
+      /** The output stream */
+      private OutputStream out;
+
+      /** The last time the connection was used */
+      private long lastUsed;
+
+      /**
+       * Constructor
+       * @param url The URL
+       * @param connectTimeout The connect timeout
+       * @param readTimeout The read timeout
+       * @exception IOException Thrown if the connection can't be established
+       */
+      Connection(URL url, int connectTimeout, int readTimeout) throws IOException
+      {
+         int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+         if ("https".equalsIgnoreCase(url.getProtocol()))
+         {
+            Socket plain = new Socket();
+            plain.connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+            plain.setSoTimeout(readTimeout);
+
+            SSLSocket ssl = (SSLSocket)((SSLSocketFactory)SSLSocketFactory.getDefault())
+               .createSocket(plain, url.getHost(), port, true);
+            socket = ssl;
+
+            try
+            {
+               // Verify the certificate against the host name during the handshake
+               SSLParameters parameters = ssl.getSSLParameters();
+               setEndpointIdentificationAlgorithm.invoke(parameters, "HTTPS");
+               ssl.setSSLParameters(parameters);
+
+               ssl.startHandshake();
+            }
+            catch (IOException ioe)
+            {
+               close();
+               throw ioe;
+            }
+            catch (Exception e)
+            {
+               close();
+               throw new IOException("Host name verification couldn't be enabled for " + url.getHost(), e);
+            }
+         }
+         else
+         {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+         }
+
+         socket.setSoTimeout(readTimeout);
+         socket.setTcpNoDelay(true);
+
+         in = new BufferedInputStream(socket.getInputStream());
+         out = new BufferedOutputStream(socket.getOutputStream());
+         lastUsed = System.currentTimeMillis();
+      }
+
+      /**
+       * Send a GET request and read the header of the response
+       * @param host The host
+       * @param url The URL
+       * @param offset The offset to resume from; <code>0</code> for the entire resource
+       * @return The body of the response
+       * @exception IOException Thrown if an error occurs
+       */
+      Body request(Host host, URL url, long offset) throws IOException
+      {
+         String file = url.getFile();
+         if (file == null || file.equals(""))
+            file = "/";
+
+         StringBuilder sb = new StringBuilder();
+         sb.append("GET ").append(file).append(" HTTP/1.1\r\n");
+         sb.append("Host: ").append(url.getHost());
+         if (url.getPort() != -1)
+            sb.append(':').append(url.getPort());
+         sb.append("\r\n");
+         sb.append("User-Agent: Fungal\r\n");
+         sb.append("Connection: keep-alive\r\n");
+         if (offset > 0)
+            sb.append("Range: bytes=").append(offset).append("-\r\n");
+         sb.append("\r\n");
+
+         out.write(sb.toString().getBytes("ISO-8859-1"));
+         out.flush();
+
+         String statusLine = readLine();
+         if (statusLine == null)
+            throw new IOException("Connection closed by " + host.getKey());
+
+         String[] status = statusLine.split(" ");
+         if (status.length < 2 || !status[0].startsWith("HTTP/"))
+            throw new IOException("Invalid status line: " + statusLine);
+
+         int code;
+         try
+         {
+            code = Integer.parseInt(status[1]);
+         }
+         catch (NumberFormatException nfe)
+         {
+            throw new IOException("Invalid status line: " + statusLine);
+         }
+
+         boolean keepAlive = !status[0].equals("HTTP/1.0");
+         boolean chunked = false;
+         long length = -1L;
+         String location = null;
+
+         String line = readLine();
+         while (line != null && !line.equals(""))
+         {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+            {
+               String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+               String value = line.substring(colon + 1).trim();
+
+               if (name.equals("content-length"))
+               {
+                  try
+                  {
+                     length = Long.parseLong(value);
+                  }
+                  catch (NumberFormatException nfe)
+                  {
+                     throw new IOException("Invalid Content-Length: " + value);
+                  }
+               }
+               else if (name.equals("transfer-encoding"))
+               {
+                  chunked = value.toLowerCase(Locale.US).indexOf("chunked") != -1;
+               }
+               else if (name.equals("connection"))
+               {
+                  if (value.equalsIgnoreCase("close"))
+                  {
+                     keepAlive = false;
+                  }
+                  else if (value.equalsIgnoreCase("keep-alive"))
+                  {
+                     keepAlive = true;
+                  }
+               }
+               else if (name.equals("location"))
+               {
+                  location = value;
+               }
+            }
+
+            line = readLine();
+         }
+
+         if (line == null)
+            throw new IOException("Connection closed by " + host.getKey());
+
+         if (chunked)
+         {
+            length = -1L;
+         }
+         else if (code == HttpURLConnection.HTTP_NO_CONTENT || code == HttpURLConnection.HTTP_NOT_MODIFIED ||
+                  (code >= 100 && code < 200))
+         {
+            length = 0L;
+         }
+         else if (length < 0)
+         {
+            // The body is delimited by the end of the connection
+            keepAlive = false;
+         }
+
+         return new Body(this, host, code, length, chunked, keepAlive, location);
+      }
+
+      /**
+       * Read a line of the response header
+       * @return The line without the line terminator; <code>null</code> if the stream ended
+       * @exception IOException Thrown if an error occurs
+       */
+      String readLine() throws IOException
+      {
+         StringBuilder sb = new StringBuilder();
+         int c = in.read();
+
+         if (c == -1)
+            return null;
+
+         while (c != -1 && c != '\n')
+         {
+            if (c != '\r')
+               sb.append((char)c);
+
+            c = in.read();
+         }
+
+         return sb.toString();
+      }
+
+      /**
+       * Get the input stream
+       * @return The value
+       */
+      InputStream getInputStream()
+      {
+         return in;
+      }
+
+      /**
+       * Get the last time the connection was used
+       * @return The value
+       */
+      long getLastUsed()
+      {
+         return lastUsed;
+      }
+
+      /**
+       * Mark the connection as used
+       */
+      void touch()
+      {
+         lastUsed = System.currentTimeMillis();
+      }
+
+      /**
+       * Is the connection closed
+       * @return True if closed; otherwise false
+       */
+      boolean isClosed()
+      {
+         return socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown();
+      }
+
+      /**
+       * Close the connection
+       */
+      void close()
+      {
+         try
+         {
+            socket.close();
+         }
+         catch (IOException ignore)
+         {
+            // Ignore
+         }
+      }
+   }
+
+   /**
+    * The body of a response; closing the body hands the connection
+    * back to the pool once the entire body has been read
+    */
+   static class Body extends InputStream
+   {
+      /** The connection */
+      private Connection connection;
+
+      /** The host */
+      private Host host;
+
+      /** The status code */
+      private int status;
+
+      /** The content length */
+      private long length;
+
+      /** Chunked */
+      private boolean chunked;
+
+      /** Keep the connection alive */
+      private boolean keepAlive;
+
+      /** The location */
+      private String location;
+
+      /** The remaining bytes of the body, or of the current chunk */
+      private long remaining;
+
+      /** The end of the body has been reached */
+      private boolean done;
+
+      /** Closed */
+      private boolean closed;
+
+      /**
+       * Constructor
+       * @param connection The connection
+       * @param host The host
+       * @param status The status code
+       * @param length The content length; <code>-1</code> if unknown
+       * @param chunked Chunked transfer encoding
+       * @param keepAlive Keep the connection alive
+       * @param location The location; <code>null</code> if none
+       */
+      Body(Connection connection, Host host, int status, long length,
+           boolean chunked, boolean keepAlive, String location)
+      {
+         this.connection = connection;
+         this.host = host;
+         this.status = status;
+         this.length = length;
+         this.chunked = chunked;
+         this.keepAlive = keepAlive;
+         this.location = location;
+         this.remaining = chunked ? 0L : length;
+         this.done = !chunked && length == 0L;
+         this.closed = false;
+      }
+
+      /**
+       * Get the status code
+       * @return The value
+       */
+      int getStatus()
+      {
+         return status;
+      }
+
+      /**
+       * Get the content length
+       * @return The value; <code>-1</code> if unknown
+       */
+      long getLength()
+      {
+         return length;
+      }
+
+      /**
+       * Get the location
+       * @return The value; <code>null</code> if none
+       */
+      String getLocation()
+      {
+         return location;
+      }
+
+      /**
+       * Read the rest of the body and close it
+       * @exception IOException Thrown if an error occurs
+       */
+      void drain() throws IOException
+      {
+         try
+         {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) != -1)
+            {
+               // Discard
+            }
+         }
+         finally
+         {
+            close();
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int read() throws IOException
+      {
+         byte[] b = new byte[1];
+         int n = read(b, 0, 1);
+
+         return n == -1 ? -1 : b[0] & 0xff;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         if (closed)
+            throw new IOException("Stream closed");
+
+         if (done)
+            return -1;
+
+         if (len == 0)
+            return 0;
+
+         if (chunked && remaining == 0L)
+         {
+            if (!nextChunk())
+               return -1;
+         }
+
+         int count = len;
+         if (remaining >= 0L && remaining < count)
+            count = (int)remaining;
+
+         int n = connection.getInputStream().read(b, off, count);
+
+         if (n == -1)
+         {
+            if (remaining > 0L || chunked)
+               throw new IOException("Premature end of body from " + host.getKey());
+
+            done = true;
+            return -1;
+         }
+
+         if (remaining > 0L)
+         {
+            remaining -= n;
+
+            if (remaining == 0L && !chunked)
+               done = true;
+         }
+
+         if (chunked && remaining == 0L)
+            connection.readLine();
+
+         return n;
+      }
+
+      /**
+       * Advance to the next chunk
+       * @return True if a chunk is available; false if the end of the body was reached
+       * @exception IOException Thrown if an error occurs
+       */
+      private boolean nextChunk() throws IOException
+      {
+         String line = connection.readLine();
+         if (line == null)
+            throw new IOException("Premature end of body from " + host.getKey());
+
+         int semicolon = line.indexOf(';');
+         if (semicolon != -1)
+            line = line.substring(0, semicolon);
+
+         try
+         {
+            remaining = Long.parseLong(line.trim(), 16);
+         }
+         catch (NumberFormatException nfe)
+         {
+            throw new IOException("Invalid chunk size: " + line);
+         }
+
+         if (remaining == 0L)
+         {
+            // Skip the trailers
+            line = connection.readLine();
+            while (line != null && !line.equals(""))
+            {
+               line = connection.readLine();
+            }
+
+            done = true;
+            return false;
+         }
+
+         return true;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void close()
+      {
+         if (closed)
+            return;
+
+         closed = true;
+
+         if (done && keepAlive)
+         {
+            host.offer(connection);
+         }
+         else
+         {
+            connection.close();
+         }
+
+         host.release();
+      }
+   }
+}